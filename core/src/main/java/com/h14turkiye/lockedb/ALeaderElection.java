@@ -0,0 +1,271 @@
+package com.h14turkiye.lockedb;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+* Represents a leader election among candidates sharing a name, built on a short leased lock.
+*
+* The leader renews its lease in the background several times per lease interval and steps
+* down on its own if the lease cannot be renewed in time. Followers are notified through the
+* database when the leader resigns, and retry when the current lease runs out, so a crashed
+* leader is replaced after at most one lease interval. Each leadership gets a term number
+* greater than all previous ones, usable as a fencing token.
+*/
+public abstract class ALeaderElection {
+
+    /** Identifies this candidate as the holder of the leadership. */
+    protected final String candidate = UUID.randomUUID().toString();
+
+    /** The factory that created this election. */
+    protected final ALockFactory factory;
+
+    /** The name shared by all candidates of the election. */
+    @Getter protected final String name;
+
+    /** The key under which the leadership is stored. */
+    @Getter protected final String key;
+
+    /** The duration of the leader's lease in milliseconds. */
+    @Getter protected final long leaseMS;
+
+    /** Whether this candidate currently holds the leadership. */
+    @Getter protected volatile boolean leader;
+
+    /** The term of the last leadership won by this candidate, {@code 0} if it was never elected. */
+    @Getter protected volatile long term;
+
+    /** Called with the term when this candidate is elected. */
+    @Getter @Setter protected volatile LongConsumer onElected;
+
+    /** Called with the term when this candidate loses or resigns its leadership. */
+    @Getter @Setter protected volatile LongConsumer onRevoked;
+
+    private volatile boolean running;
+
+    // Whether a campaign is already scheduled for when the current lease runs out
+    private final AtomicBoolean retryScheduled = new AtomicBoolean();
+
+    // Callbacks run one after another off the database I/O threads, in the order of the changes
+    private CompletableFuture<Void> callbacks = CompletableFuture.completedFuture(null);
+
+    protected ALeaderElection(final ALockFactory factory, final String name, final long leaseMS) {
+        if (leaseMS <= 0) {
+            throw new IllegalArgumentException("The lease must be positive");
+        }
+        this.factory = factory;
+        this.name = name;
+        this.key = name + ":leader";
+        this.leaseMS = leaseMS;
+    }
+
+    /**
+    * Runs a blocking backend call on the factory's executor once the factory is ready.
+    *
+    * @param call the backend call
+    * @return a CompletableFuture of the call's result, failed if the factory is closed before it is ready
+    */
+    protected <T> CompletableFuture<T> supplyAsync(final Supplier<T> call) {
+        return factory.supplyWhenReady(call);
+    }
+
+    /**
+    * The outcome of an attempt to take the leadership.
+    *
+    * @param elected whether the leadership was taken
+    * @param term the term of the new leadership, if elected
+    * @param leaseLeftMS the time left on the current leader's lease, if not elected
+    */
+    public record Ballot(boolean elected, long term, long leaseLeftMS) {}
+
+    /**
+    * Takes the leadership if nobody holds an unexpired lease, incrementing the term.
+    *
+    * @return a CompletableFuture that resolves to the outcome of the attempt
+    */
+    protected abstract CompletableFuture<Ballot> tryAcquire();
+
+    /**
+    * Extends the lease of this candidate's leadership by the lease duration.
+    *
+    * @return a CompletableFuture that resolves to {@code true} if this candidate still held the leadership
+    */
+    protected abstract CompletableFuture<Boolean> renew();
+
+    /**
+    * Gives up this candidate's leadership and notifies the other candidates.
+    *
+    * @return a CompletableFuture that resolves to {@code true} if this candidate held the leadership
+    */
+    protected abstract CompletableFuture<Boolean> vacate();
+
+    /**
+    * Starts or stops waking this candidate up with {@link #onVacated()} when the leadership is given up.
+    *
+    * @param follow {@code true} to start following the leadership, {@code false} to stop
+    */
+    protected abstract void follow(boolean follow);
+
+    /**
+    * Joins the election. The candidate stays in the election until {@link #resign()} is called
+    * or its factory is closed.
+    *
+    * @return a CompletableFuture that resolves to {@code true} if this candidate was elected by its first attempt
+    */
+    public CompletableFuture<Boolean> start() {
+        running = true;
+        factory.elections.add(this);
+        follow(true);
+        return campaign();
+    }
+
+    /**
+    * Leaves the election, giving up the leadership if it is held so another candidate
+    * is elected without waiting for the lease to run out.
+    *
+    * @return a CompletableFuture that resolves to {@code true} if this candidate held the leadership
+    */
+    public CompletableFuture<Boolean> resign() {
+        running = false;
+        factory.elections.remove(this);
+        follow(false);
+        if (!revoke(term)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return vacate();
+    }
+
+    /**
+    * Leaves the election as the factory closes, stepping down locally. The factory's
+    * connections are closed by then, so the leadership is not given up in the database
+    * and passes to another candidate once its lease runs out.
+    *
+    * @return a CompletableFuture that completes once the callbacks of this candidate have run
+    */
+    synchronized CompletableFuture<Void> abandon() {
+        running = false;
+        revoke(term);
+        return callbacks;
+    }
+
+    /**
+    * Wakes this candidate up once the leadership has been given up.
+    * Must be called by implementations on the database's notification.
+    */
+    protected void onVacated() {
+        if (running && !leader) {
+            factory.getExecutor().execute(this::campaign);
+        }
+    }
+
+    private CompletableFuture<Boolean> campaign() {
+        if (!running || leader) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        final long sentAtNanos = System.nanoTime();
+        return tryAcquire().handleAsync((ballot, ex) -> {
+            if (ex != null) {
+                ex.printStackTrace();
+                retryIn(leaseMS);
+                return false;
+            }
+            if (!ballot.elected()) {
+                // A crashed leader sends no notification, try again when its lease runs out
+                retryIn(ballot.leaseLeftMS());
+                return false;
+            }
+            elected(ballot.term(), sentAtNanos);
+            return true;
+        }, factory.getExecutor());
+    }
+
+    private void retryIn(final long delayMS) {
+        if (running && retryScheduled.compareAndSet(false, true)) {
+            factory.schedule(() -> {
+                retryScheduled.set(false);
+                campaign();
+            }, Math.max(1, delayMS));
+        }
+    }
+
+    private void elected(final long newTerm, final long sentAtNanos) {
+        synchronized (this) {
+            if (!running) {
+                // Resigned while campaigning
+                vacate();
+                return;
+            }
+            term = newTerm;
+            leader = true;
+            runCallback(onElected, newTerm);
+        }
+        factory.getExecutor().execute(() -> renewLease(newTerm, sentAtNanos + TimeUnit.MILLISECONDS.toNanos(leaseMS)));
+    }
+
+    /**
+    * Renews the lease every third of its duration, stepping down if it could not be
+    * renewed before it runs out.
+    */
+    private void renewLease(final long leaseTerm, long deadlineNanos) {
+        final long intervalMS = Math.max(1, leaseMS / 3);
+        try {
+            while (leader && term == leaseTerm) {
+                Thread.sleep(intervalMS);
+                if (!leader || term != leaseTerm) return;
+
+                final long sentAtNanos = System.nanoTime();
+                Boolean renewed = null;
+                try {
+                    renewed = renew().get(Math.max(0, deadlineNanos - sentAtNanos), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException | TimeoutException e) {
+                    e.printStackTrace();
+                }
+                if (Boolean.TRUE.equals(renewed)) {
+                    deadlineNanos = sentAtNanos + TimeUnit.MILLISECONDS.toNanos(leaseMS);
+                }
+                else if (renewed != null || System.nanoTime() >= deadlineNanos) {
+                    // The lease was taken over or ran out, a failed renewal is otherwise retried
+                    if (revoke(leaseTerm)) {
+                        campaign();
+                    }
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+    * Steps down locally from the given term.
+    *
+    * @return {@code true} if this candidate was the leader of that term
+    */
+    private synchronized boolean revoke(final long leaseTerm) {
+        if (!leader || term != leaseTerm) return false;
+
+        leader = false;
+        runCallback(onRevoked, leaseTerm);
+        return true;
+    }
+
+    private synchronized void runCallback(final LongConsumer callback, final long callbackTerm) {
+        if (callback != null) {
+            callbacks = callbacks.thenRunAsync(() -> callback.accept(callbackTerm), factory.getExecutor())
+            .exceptionally(ex -> {
+                ex.printStackTrace();
+                return null;
+            });
+        }
+    }
+}
@@ -3,8 +3,14 @@ package com.h14turkiye.lockedb;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.h14turkiye.lockedb.jfr.LockAcquireEvent;
+import com.h14turkiye.lockedb.jfr.LockNotifyEvent;
+import com.h14turkiye.lockedb.jfr.LockReleaseEvent;
+import com.h14turkiye.lockedb.jfr.LockWaitEvent;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -16,6 +22,14 @@ import lombok.Setter;
 public abstract class ALock {
 
     protected final String uuid = UUID.randomUUID().toString();
+
+    /** The factory that created this lock. */
+    protected final ALockFactory factory;
+
+    protected ALock(final ALockFactory factory) {
+        this.factory = factory;
+        this.executor = factory.getLockExecutor();
+    }
     
     /** The unique key identifying the lock. */
     @Getter @Setter protected String key;
@@ -36,25 +50,47 @@ public abstract class ALock {
     /** The timeout duration for acquiring the lock in milliseconds. */
     @Getter @Setter protected long timeoutMS;
     
-    /** Executor service for handling asynchronous lock operations. */
-    public static final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    /**
+    * Whether waiters are queued on the server and handed the lock in arrival order.
+    * A key should be used consistently by either fair or non-fair locks.
+    */
+    @Getter @Setter protected boolean fair;
     
     /**
-    * Schedules a task to be executed after the specified delay.
+    * Whether the lock carries a small guarded value, read atomically on acquisition
+    * and written back atomically on {@link #release(String)}.
+    * A key should be used consistently by either guarded or unguarded locks.
+    */
+    @Getter @Setter protected boolean guarded;
+    
+    /** The guarded value read when the lock was last acquired, or {@code null} if none is stored. */
+    @Getter protected volatile String value;
+    
+    /** The version of the guarded value read when the lock was last acquired, {@code 0} if it was never written. */
+    @Getter protected volatile long version;
+    
+    /** Executor for handling asynchronous lock operations, shared by the locks of a factory and held back until it is ready. */
+    protected final Executor executor;
+    
+    /**
+    * Schedules a task to be executed on the factory's executor after the specified delay.
     *
     * @param runnable the task to execute
     * @param delayMS the delay in milliseconds
     * @return a CompletableFuture that completes when the scheduled task is executed
     */
-    public static CompletableFuture<Void> schedule(Runnable runnable, long delayMS) {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                Thread.sleep(delayMS);
-                runnable.run();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }, executor);
+    protected CompletableFuture<Void> schedule(Runnable runnable, long delayMS) {
+        return factory.schedule(runnable, delayMS);
+    }
+    
+    /**
+    * Runs a blocking backend call on the factory's executor once the factory is ready.
+    *
+    * @param call the backend call
+    * @return a CompletableFuture of the call's result, failed if the factory is closed before it is ready
+    */
+    protected <T> CompletableFuture<T> supplyAsync(final Supplier<T> call) {
+        return factory.supplyWhenReady(call);
     }
     
     /**
@@ -74,6 +110,19 @@ public abstract class ALock {
     */
     public abstract CompletableFuture<Boolean> release();
     
+    /**
+    * Writes the guarded value and releases the lock in a single operation.
+    * The value is only written if its version is still the one read on acquisition,
+    * in which case the stored version is incremented.
+    * Only supported by guarded locks.
+    *
+    * @param newValue the value to store, or {@code null} to remove it
+    * @return a CompletableFuture that resolves to {@code true} if the value was written and the lock released,
+    *         otherwise {@code false}. The lock is released whenever it was held, even if the value was not written.
+    *         Fails with an {@link IllegalStateException} if the lock is not guarded.
+    */
+    public abstract CompletableFuture<Boolean> release(String newValue);
+    
     /**
     * Checks asynchronously whether the lock is currently held by any process.
     *
@@ -88,13 +137,200 @@ public abstract class ALock {
     */
     public abstract CompletableFuture<Boolean> isAcquirable();
 
+    /**
+    * Checks whether the current acquisition has been turned down because the lock is held,
+    * and now waits to be woken up by its release.
+    *
+    * @return {@code true} if the acquisition is waiting for the lock, otherwise {@code false}.
+    */
+    public boolean isWaiting() {
+        final CompletableFuture<Boolean> future = acquireFuture;
+        return contended && future != null && !future.isDone();
+    }
+
     protected CompletableFuture<Boolean> acquireFuture;
 
+    // Whether the current acquisition had to wait, and when the lock was last acquired
+    private volatile boolean contended;
+    private volatile long acquiredAtNanos;
+
+    // Calls made to the backend during the current acquisition
+    private final AtomicInteger roundTrips = new AtomicInteger();
+
+    // The wait being recorded for Flight Recorder, if any
+    private volatile LockWaitEvent waitEvent;
+
+    // Set while the lock is being released because it expired
+    private volatile boolean expiring;
+
+    /**
+    * Creates the future of a new acquisition, reporting its wait time to the
+    * factory's profiler if the acquisition turns out to be contended, and
+    * recording it for Flight Recorder when the acquire event is enabled.
+    *
+    * @return the future to complete once the acquisition is resolved
+    */
+    protected CompletableFuture<Boolean> newAcquireFuture() {
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        if (!factory.isReady()) {
+            // Operations queued until the factory is ready are dropped if it is closed before
+            factory.ready.whenComplete((connected, ex) -> {
+                if (ex != null) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        }
+        contended = false;
+        roundTrips.set(0);
+        final ContentionProfiler profiler = factory.profiler;
+        if (profiler != null) {
+            final long startNanos = System.nanoTime();
+            future.whenComplete((acquired, ex) -> {
+                if (contended) {
+                    profiler.recordWait(key, System.nanoTime() - startNanos);
+                }
+            });
+        }
+        
+        final LockAcquireEvent event = new LockAcquireEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            future.whenComplete((acquired, ex) -> {
+                endWait();
+                event.end();
+                if (event.shouldCommit()) {
+                    event.key = key;
+                    event.backend = factory.getBackend();
+                    event.outcome = ex != null ? "FAILED" : acquired == null ? "CANCELLED" : acquired ? "ACQUIRED" : "TIMEOUT";
+                    event.roundTrips = roundTrips.get();
+                    event.fair = fair;
+                    event.commit();
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+    * Counts a call made to the backend for the current acquisition.
+    * Should be called by implementations for every call of an acquisition attempt.
+    */
+    protected void onRoundTrip() {
+        roundTrips.incrementAndGet();
+    }
+
+    /**
+    * Marks the current acquisition as contended and starts recording its wait.
+    * Must be called by implementations when an attempt is rejected because the lock is held.
+    */
+    protected void onContended() {
+        contended = true;
+        if (waitEvent == null) {
+            final LockWaitEvent event = new LockWaitEvent();
+            if (event.isEnabled()) {
+                event.begin();
+                waitEvent = event;
+            }
+        }
+    }
+
+    /**
+    * Ends the current wait on a backend notification.
+    * Should be called by implementations before a notification wakes this lock up.
+    *
+    * @param type the kind of notification, such as DELETE or GRANT
+    */
+    protected void onNotified(final String type) {
+        endWait();
+        final LockNotifyEvent event = new LockNotifyEvent();
+        if (event.isEnabled()) {
+            event.key = key;
+            event.backend = factory.getBackend();
+            event.type = type;
+            event.commit();
+        }
+    }
+
+    private void endWait() {
+        final LockWaitEvent event = waitEvent;
+        if (event != null) {
+            waitEvent = null;
+            event.end();
+            if (event.shouldCommit()) {
+                event.key = key;
+                event.backend = factory.getBackend();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+    * Registers this lock as held by its factory and schedules its expiration.
+    * Must be called by implementations once the lock has been acquired.
+    */
+    protected void onAcquired() {
+        acquiredAtNanos = System.nanoTime();
+        factory.heldLocks.add(this);
+        scheduleExpirationRemoval();
+    }
+
+    /**
+    * Unregisters this lock from its factory's held locks.
+    * Must be called by implementations when the lock is released.
+    */
+    protected void onReleased() {
+        final boolean held = factory.heldLocks.remove(this);
+        final boolean expired = expiring;
+        expiring = false;
+        if (held) {
+            final ContentionProfiler profiler = factory.profiler;
+            if (profiler != null) {
+                profiler.recordHold(key, System.nanoTime() - acquiredAtNanos);
+            }
+        }
+        
+        if (expired && held && factory.reportsLocalExpirations()) {
+            factory.eventPublisher.publish(LockEvent.Type.EXPIRED, eventKey());
+        }
+        
+        final LockReleaseEvent event = new LockReleaseEvent();
+        if (event.isEnabled()) {
+            event.key = key;
+            event.backend = factory.getBackend();
+            event.expired = expired;
+            event.held = held;
+            event.holdTime = held ? System.nanoTime() - acquiredAtNanos : 0;
+            event.commit();
+        }
+    }
+
+    /**
+    * Resolves the current acquisition and unregisters the lock, once it has been released
+    * in the backend by its factory.
+    */
+    void releaseLocally() {
+        if (acquireFuture != null) {
+            acquireFuture.complete(null);
+        }
+        onReleased();
+    }
+
+    /**
+    * @return the key under which the lock is held in the backend, reported in lock events
+    */
+    protected String eventKey() {
+        return key;
+    }
+
     protected void scheduleExpirationRemoval() {
         if (expiresAfterMS > 0) {
+            final long acquisition = acquiredAtNanos;
             schedule(() -> {
+                // Skip if the lock was released meanwhile, possibly in bulk, or acquired again
+                if (acquiredAtNanos != acquisition || !factory.heldLocks.contains(this)) return;
                 try {
                     if (!acquireFuture.isDone() || acquireFuture.get()) {
+                        expiring = true;
                         release();
                     }
                 } catch (InterruptedException | ExecutionException e) {
@@ -7,6 +7,8 @@ public abstract class ALockBuilder {
     protected String password;
     protected Long expiresAfterMS = 24 * 60 * 60 * 1000L; // Default: 24 hours
     protected Long timeoutMS = 30 * 1000L; // Default: 30 seconds
+    protected boolean fair = false;
+    protected boolean guarded = false;
 
     /**
      * Builds an instance of ALock with the specified key.
@@ -16,6 +18,16 @@ public abstract class ALockBuilder {
      */
     public abstract ALock build(final String key);
 
+    /**
+     * Builds a lock on any one of the slots of a pool.
+     * The expiration and timeout settings apply, other options are not supported by pool locks.
+     *
+     * @param pool the unique name of the pool
+     * @param slots the number of slots in the pool
+     * @return an instance of APoolLock
+     */
+    public abstract APoolLock buildPool(final String pool, final int slots);
+
     /**
      * Sets the password for the lock.
      * 
@@ -52,4 +64,55 @@ public abstract class ALockBuilder {
         this.timeoutMS = timeoutMS;
         return this;
     }
+
+    /**
+     * Sets whether the lock is fair.
+     * 
+     * Fair locks wait in a queue kept by the database. On release, the lock is handed
+     * directly to the oldest waiter instead of every waiter racing for it.
+     *
+     * @param fair {@code true} to queue waiters in arrival order
+     * @return the current instance of ALockBuilder for chaining
+     */
+    public ALockBuilder fair(final boolean fair) {
+        this.fair = fair;
+        return this;
+    }
+
+    /**
+     * Sets whether the lock carries a guarded value.
+     * 
+     * A guarded lock reads its value and version in the same operation that acquires it,
+     * see {@link ALock#getValue()}, and writes it back while releasing with {@link ALock#release(String)}.
+     * Guarded locks cannot be fair.
+     *
+     * @param guarded {@code true} to attach a guarded value to the lock
+     * @return the current instance of ALockBuilder for chaining
+     */
+    public ALockBuilder guarded(final boolean guarded) {
+        this.guarded = guarded;
+        return this;
+    }
+
+    /**
+     * Checks that the configured options can be combined.
+     *
+     * @throws IllegalStateException if the lock is both fair and guarded
+     */
+    protected void validate() {
+        if (fair && guarded) {
+            throw new IllegalStateException("Guarded locks cannot be fair");
+        }
+    }
+
+    /**
+     * Checks that the configured options are supported by pool locks.
+     *
+     * @throws IllegalStateException if the lock is fair, guarded or password protected
+     */
+    protected void validatePool() {
+        if (fair || guarded || password != null) {
+            throw new IllegalStateException("Pool locks cannot be fair, guarded or password protected");
+        }
+    }
 }
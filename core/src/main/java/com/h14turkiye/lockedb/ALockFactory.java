@@ -0,0 +1,247 @@
+package com.h14turkiye.lockedb;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * An abstract lock factory holding the state shared by all locks it creates.
+ * Factories are independent of each other, so several of them can serve different
+ * namespaces or clusters side by side.
+ */
+public abstract class ALockFactory implements LockFactory {
+
+    // Backoff between attempts of a background initialization, doubled after every failure
+    private static final long INITIAL_RETRY_MS = 100;
+    private static final long MAX_RETRY_MS = 10_000;
+
+    // How long closing waits for the revocation callbacks of its elections to run
+    private static final long CALLBACK_DRAIN_MS = 5_000;
+
+    /** Identifies this factory as the owner of the locks it acquires. */
+    @Getter protected final String owner = UUID.randomUUID().toString();
+
+    /** Locks currently held through this factory, used for bulk release. */
+    protected final Set<ALock> heldLocks = ConcurrentHashMap.newKeySet();
+
+    /** Elections this factory's candidates take part in, revoked when it is closed. */
+    protected final Set<ALeaderElection> elections = ConcurrentHashMap.newKeySet();
+
+    /** Optional profiler of contended keys, {@code null} when profiling is disabled. */
+    @Getter @Setter protected volatile ContentionProfiler profiler;
+
+    /** Executor running the asynchronous operations, timeouts and callbacks of this factory's locks. */
+    @Getter protected final ExecutorService executor;
+
+    // Whether the executor was created by this factory and is shut down with it
+    private final boolean ownsExecutor;
+
+    /** Completes once this factory is connected, or fails if it is closed before. */
+    protected final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    /** Executor of lock operations, holding them back until this factory is ready. */
+    @Getter protected final Executor lockExecutor = this::executeWhenReady;
+
+    /** Streams the lock events notified by the backend to subscribers. */
+    protected final LockEventPublisher eventPublisher;
+
+    /**
+     * Constructs a factory running its locks on its own virtual thread per task executor.
+     */
+    protected ALockFactory() {
+        this(Executors.newVirtualThreadPerTaskExecutor(), true);
+    }
+
+    /**
+     * Constructs a factory running its locks on the given executor.
+     * The executor is not shut down when the factory is closed.
+     *
+     * @param executor the executor for asynchronous lock operations, or {@code null} to create its own
+     */
+    protected ALockFactory(final ExecutorService executor) {
+        this(executor != null ? executor : Executors.newVirtualThreadPerTaskExecutor(), executor == null);
+    }
+
+    private ALockFactory(final ExecutorService executor, final boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.eventPublisher = new LockEventPublisher(executor, Flow.defaultBufferSize());
+    }
+
+    /**
+     * @return the name of the database backend, used to label diagnostic events
+     */
+    public abstract String getBackend();
+
+    /**
+     * Schedules a task to be executed on this factory's executor after the specified delay.
+     *
+     * @param runnable the task to execute
+     * @param delayMS the delay in milliseconds
+     * @return a CompletableFuture that completes when the scheduled task is executed
+     */
+    public CompletableFuture<Void> schedule(final Runnable runnable, final long delayMS) {
+        return CompletableFuture.runAsync(runnable, CompletableFuture.delayedExecutor(delayMS, TimeUnit.MILLISECONDS, executor));
+    }
+
+    /**
+     * Whether the locks of this factory report an EXPIRED event when their local expiration
+     * timer releases them. Implementations receiving expirations from their backend return
+     * {@code false} while they do, so every expiration is reported once.
+     *
+     * @return {@code true} unless the backend reports expirations
+     */
+    protected boolean reportsLocalExpirations() {
+        return true;
+    }
+
+    /**
+     * Resolves a held lock as released, as its own release would, without writing to the backend.
+     * Must be called by implementations of {@link #releaseAll()} for every lock they release in bulk,
+     * so its hold is recorded, its events emitted and its expiration no longer released.
+     *
+     * @param lock a lock held through this factory
+     */
+    protected void onReleasedInBulk(final ALock lock) {
+        lock.releaseLocally();
+    }
+
+    /**
+     * Runs the initialization of this factory on the calling thread, failing if the backend is unavailable.
+     *
+     * @param initializer connects to the backend and prepares it for locks
+     */
+    protected void initialize(final Runnable initializer) {
+        initializer.run();
+        ready.complete(null);
+    }
+
+    /**
+     * Runs the initialization of this factory in the background, retrying it with an exponential
+     * backoff until it succeeds or the factory is closed. Lock operations issued meanwhile are
+     * queued and sent once it succeeds.
+     * The initializer must release whatever it opened when it fails.
+     *
+     * @param initializer connects to the backend and prepares it for locks
+     */
+    protected void initializeAsync(final Runnable initializer) {
+        executor.execute(() -> attemptInitialization(initializer, INITIAL_RETRY_MS));
+    }
+
+    private void attemptInitialization(final Runnable initializer, final long backoffMS) {
+        if (ready.isDone()) return;
+        
+        try {
+            initializer.run();
+            if (!ready.complete(null)) {
+                // Closed while connecting, release what was just opened
+                close();
+            }
+        } catch (RuntimeException e) {
+            if (ready.isDone()) return;
+            e.printStackTrace();
+            schedule(() -> attemptInitialization(initializer, Math.min(backoffMS * 2, MAX_RETRY_MS)), backoffMS);
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    @Override
+    public CompletableFuture<LockFactory> whenReady() {
+        return ready.thenApply(connected -> this);
+    }
+
+    @Override
+    public Flow.Publisher<LockEvent> events() {
+        return eventPublisher.filter(key -> true);
+    }
+
+    @Override
+    public Flow.Publisher<LockEvent> events(final String key) {
+        return eventPublisher.filter(key::equals);
+    }
+
+    @Override
+    public Flow.Publisher<LockEvent> eventsWithPrefix(final String prefix) {
+        return eventPublisher.filter(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * @return the number of lock events dropped because a subscriber's buffer was full
+     */
+    public long getDroppedEvents() {
+        return eventPublisher.getDropped();
+    }
+
+    /**
+     * Runs a backend call right away if this factory is ready, otherwise once it is.
+     *
+     * @param call the backend call
+     * @return the result of the call, failed if the factory is closed before it is ready
+     */
+    protected <T> CompletableFuture<T> afterReady(final Supplier<CompletableFuture<T>> call) {
+        if (isReady()) {
+            return call.get();
+        }
+        return ready.thenCompose(connected -> call.get());
+    }
+
+    /**
+     * Runs a blocking backend call on the executor once this factory is ready.
+     *
+     * @param call the backend call
+     * @return the result of the call, failed if the factory is closed before it is ready
+     */
+    protected <T> CompletableFuture<T> supplyWhenReady(final Supplier<T> call) {
+        return afterReady(() -> CompletableFuture.supplyAsync(call, executor));
+    }
+
+    private void executeWhenReady(final Runnable task) {
+        if (ready.isDone()) {
+            executor.execute(task);
+        }
+        else {
+            ready.thenRun(() -> executor.execute(task));
+        }
+    }
+
+    /**
+     * Revokes the leadership of this factory's candidates and takes them out of their elections,
+     * shuts down the executor if it was created by this factory, fails the lock operations
+     * still waiting for the factory to be ready and completes the event subscriptions.
+     * Implementations close their connections and watchers before calling this.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<?>[] revocations = elections.stream().map(ALeaderElection::abandon).toArray(CompletableFuture[]::new);
+        elections.clear();
+        ready.completeExceptionally(new IllegalStateException("The lock factory was closed before it was ready"));
+        eventPublisher.close();
+        if (ownsExecutor) {
+            // The onRevoked callbacks run on the executor, let them finish before it stops
+            try {
+                CompletableFuture.allOf(revocations).get(CALLBACK_DRAIN_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                e.printStackTrace();
+            }
+            executor.shutdownNow();
+        }
+    }
+}
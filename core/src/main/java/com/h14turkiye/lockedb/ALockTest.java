@@ -1,11 +1,30 @@
 package com.h14turkiye.lockedb;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -17,6 +36,41 @@ public abstract class ALockTest {
 
     protected static LockFactory factory;
 
+    /**
+    * Creates another factory connected to the same database as {@link #factory}.
+    */
+    protected abstract LockFactory newFactory();
+
+    /**
+    * Starts another factory connected to the same database as {@link #factory}, connecting in the background.
+    */
+    protected abstract LockFactory startFactory();
+
+    /**
+    * Starts a factory in the background whose database cannot be reached.
+    */
+    protected abstract LockFactory startUnreachableFactory();
+
+    /**
+    * @return a local port nothing listens on
+    */
+    protected static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+    * Waits until a lock's acquisition has been turned down and waits for the lock.
+    */
+    protected static void awaitWaiting(final ALock lock) throws InterruptedException {
+        final long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!lock.isWaiting()) {
+            assertTrue(System.nanoTime() < deadlineNanos, "The lock should be waiting");
+            Thread.sleep(5);
+        }
+    }
+
     private long startTime;
 
     @BeforeEach
@@ -217,4 +271,492 @@ public abstract class ALockTest {
         lock2.release().get();
     }
 
-}
\ No newline at end of file
+    /**
+    * Test 5: Releasing every lock held by the factory at once
+    */
+    @Test
+    public void testReleaseAll() throws Exception {
+        // A factory of its own, so no lock of another test is released with these
+        try (LockFactory own = newFactory()) {
+            ALock lock1 = own.builder().timeoutMS(100L).build("bulk-resource-1");
+            ALock lock2 = own.builder().timeoutMS(100L).build("bulk-resource-2");
+            CompletableFuture<Boolean> acquiring1 = lock1.acquire();
+            CompletableFuture<Boolean> acquiring2 = lock2.acquire();
+            
+            assertTrue(acquiring1.get(), "Should be able to acquire the first lock");
+            assertTrue(acquiring2.get(), "Should be able to acquire the second lock");
+            
+            assertEquals(2, own.releaseAll().get(), "Both locks should be released in bulk");
+            assertEquals(0, own.releaseAll().get(), "Locks released in bulk should no longer be held");
+            
+            assertFalse(lock1.isLocked().get(), "First lock should be released");
+            assertFalse(lock2.isLocked().get(), "Second lock should be released");
+            assertFalse(lock1.release().get(), "A lock released in bulk should not be released again");
+        }
+    }
+
+    /**
+    * Test 6: Fair locks are handed over to waiters in arrival order
+    */
+    @Test
+    public void testFairLockOrdering() throws Exception {
+        final String resourceKey = "fair-resource";
+        
+        ALock holder = factory.builder().fair(true).timeoutMS(1000L).build(resourceKey);
+        assertTrue(holder.acquire().get(), "Should be able to acquire the fair lock initially");
+        
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final int waiterId = i;
+            ALock waiter = factory.builder().fair(true).timeoutMS(3000L).build(resourceKey);
+            futures.add(waiter.acquire().thenCompose(acquired -> {
+                order.add(waiterId);
+                return waiter.release();
+            }));
+            // Let each waiter join the queue before the next one
+            awaitWaiting(waiter);
+        }
+        
+        assertTrue(holder.release().get(), "Holder should release the fair lock");
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(5, TimeUnit.SECONDS), "Every waiter should acquire and release the lock");
+        }
+        
+        assertEquals(List.of(0, 1, 2), order, "Waiters should acquire the lock in arrival order");
+    }
+
+    /**
+    * Test 7: Contended keys show up in the profiler, and keys with the same hashCode are counted apart
+    */
+    @Test
+    public void testContentionProfiler() throws Exception {
+        final String resourceKey = "profiled-resource";
+        factory.setProfiler(new ContentionProfiler());
+        try {
+            ALock holder = factory.builder().timeoutMS(100L).build(resourceKey);
+            assertTrue(holder.acquire().get(), "Should be able to acquire the lock initially");
+            
+            ALock waiter = factory.builder().timeoutMS(30L).build(resourceKey);
+            assertFalse(waiter.acquire().get(), "Waiter should time out while the lock is held");
+            assertTrue(holder.release().get(), "Holder should release the lock");
+            
+            List<ContentionProfiler.HotKey> hotKeys = factory.getProfiler().snapshot();
+            assertFalse(hotKeys.isEmpty(), "Profiler should track the contended key");
+            assertEquals(resourceKey, hotKeys.get(0).key(), "Contended key should be the heaviest");
+            assertTrue(hotKeys.get(0).waits() >= 1, "Wait should be counted");
+            assertTrue(hotKeys.get(0).holds() >= 1, "Hold should be counted");
+        } finally {
+            factory.setProfiler(null);
+        }
+        
+        // Keys sharing a hashCode are counted apart
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        ContentionProfiler profiler = new ContentionProfiler();
+        for (int i = 0; i < 5; i++) {
+            profiler.recordWait("Aa", 1L);
+        }
+        profiler.recordWait("BB", 1L);
+        for (ContentionProfiler.HotKey hotKey : profiler.snapshot()) {
+            assertEquals(hotKey.key().equals("Aa") ? 5 : 1, hotKey.waits(), "Waits on " + hotKey.key() + " should not be counted for the other key");
+        }
+    }
+
+    /**
+    * Test 8: Guarded values are read on acquisition and written on release
+    */
+    @Test
+    public void testGuardedValue() throws Exception {
+        final String resourceKey = "guarded-resource";
+        
+        ALock lock1 = factory.builder().guarded(true).timeoutMS(100L).build(resourceKey);
+        assertTrue(lock1.acquire().get(), "Should be able to acquire the guarded lock");
+        assertNull(lock1.getValue(), "No value should be stored initially");
+        long initialVersion = lock1.getVersion();
+        assertTrue(lock1.release("first").get(), "Value should be written on release");
+        
+        ALock lock2 = factory.builder().guarded(true).timeoutMS(100L).build(resourceKey);
+        assertTrue(lock2.acquire().get(), "Should be able to acquire the guarded lock again");
+        assertEquals("first", lock2.getValue(), "Value written on release should be read on acquisition");
+        assertEquals(initialVersion + 1, lock2.getVersion(), "Version should be incremented by the write");
+        assertTrue(lock2.release("second").get(), "Value should be written on release");
+        assertFalse(lock2.isLocked().get(), "Lock should be released after writing its value");
+        
+        // A holder whose lease ran out is overtaken, its stale write must not land
+        ALock stale = factory.builder().guarded(true).expiresAfterMS(100L).timeoutMS(100L).build(resourceKey);
+        assertTrue(stale.acquire().get(), "Should be able to acquire the guarded lock");
+        assertEquals("second", stale.getValue());
+        ALock overtaking = factory.builder().guarded(true).timeoutMS(5000L).build(resourceKey);
+        assertTrue(overtaking.acquire().get(), "Should acquire the guarded lock once the lease runs out");
+        assertEquals(stale.getVersion(), overtaking.getVersion(), "Both holders should have read the same version");
+        assertTrue(overtaking.release("third").get(), "Value should be written on release");
+        assertFalse(stale.release("stale").get(), "A stale holder should not write its value");
+        
+        ALock reader = factory.builder().guarded(true).timeoutMS(100L).build(resourceKey);
+        assertTrue(reader.acquire().get(), "Should be able to acquire the guarded lock");
+        assertEquals("third", reader.getValue(), "The stale value should not have been written");
+        assertEquals(overtaking.getVersion(), reader.getVersion(), "Only the current holder should have bumped the version");
+        assertTrue(reader.release().get());
+        
+        ALock unguarded = factory.builder().timeoutMS(100L).build("unguarded-resource");
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> unguarded.release("value").get());
+        assertInstanceOf(IllegalStateException.class, failure.getCause(), "Only guarded locks should carry a value");
+    }
+
+    /**
+    * Test 9: Pool locks take distinct free slots, and waiters are woken when a slot is released
+    */
+    @Test
+    public void testPoolLock() throws Exception {
+        final String pool = "pool-resource";
+        
+        APoolLock first = factory.builder().timeoutMS(100L).buildPool(pool, 2);
+        APoolLock second = factory.builder().timeoutMS(100L).buildPool(pool, 2);
+        assertTrue(first.acquire().get(), "Should be able to take the first slot");
+        assertTrue(second.acquire().get(), "Should be able to take the second slot");
+        assertNotEquals(first.getSlot(), second.getSlot(), "Each lock should hold a different slot");
+        assertTrue(first.isLocked().get(), "Pool should be locked while every slot is held");
+        
+        APoolLock third = factory.builder().timeoutMS(100L).buildPool(pool, 2);
+        assertFalse(third.acquire().get(), "Should time out while every slot is held");
+        assertEquals(-1, third.getSlot(), "No slot should be held after timing out");
+        
+        APoolLock waiter = factory.builder().timeoutMS(5000L).buildPool(pool, 2);
+        CompletableFuture<Boolean> waiting = waiter.acquire();
+        awaitWaiting(waiter);
+        final int freed = first.getSlot();
+        assertTrue(first.release().get(), "Should be able to release a slot");
+        assertTrue(waiting.get(1, TimeUnit.SECONDS), "Waiter should take the released slot");
+        assertEquals(freed, waiter.getSlot(), "Waiter should hold the released slot");
+        
+        assertTrue(second.release().get());
+        assertTrue(waiter.release().get());
+        assertTrue(third.isAcquirable().get(), "Pool should be acquirable once its slots are released");
+    }
+
+    /**
+    * Test 10: A single leader is kept while it renews its lease, and a follower takes over
+    * with a higher term once it resigns
+    */
+    @Test
+    public void testLeaderElection() throws Exception {
+        ALeaderElection first = factory.createElection("election-resource", 300L);
+        ALeaderElection second = factory.createElection("election-resource", 300L);
+        
+        assertTrue(first.start().get(), "First candidate should be elected");
+        assertFalse(second.start().get(), "Second candidate should follow the leader");
+        
+        // Outlive several leases, checking all along that the leader keeps renewing its own
+        final long untilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000);
+        while (System.nanoTime() < untilNanos) {
+            assertTrue(first.isLeader(), "Leader should keep its leadership by renewing its lease");
+            assertFalse(second.isLeader(), "Follower should not be elected while the leader renews its lease");
+            Thread.sleep(20);
+        }
+        assertFalse(second.resign().get(), "Follower should not hold the leadership");
+        assertTrue(first.resign().get(), "Leader should be able to resign");
+        
+        // With a lease longer than the wait, only the notification can elect the follower
+        ALeaderElection leader = factory.createElection("handover-resource", 60000L);
+        ALeaderElection follower = factory.createElection("handover-resource", 60000L);
+        CountDownLatch leaderRevoked = new CountDownLatch(1);
+        CountDownLatch followerElected = new CountDownLatch(1);
+        leader.setOnRevoked(term -> leaderRevoked.countDown());
+        follower.setOnElected(term -> followerElected.countDown());
+        
+        assertTrue(leader.start().get(), "First candidate should be elected");
+        assertFalse(follower.start().get(), "Second candidate should follow the leader");
+        
+        final long firstTerm = leader.getTerm();
+        assertTrue(leader.resign().get(), "Leader should be able to resign");
+        assertTrue(leaderRevoked.await(5, TimeUnit.SECONDS), "Resigning should revoke the leadership");
+        assertTrue(followerElected.await(5, TimeUnit.SECONDS), "Follower should be elected once notified, before the lease runs out");
+        assertTrue(follower.isLeader(), "Follower should now be the leader");
+        assertTrue(follower.getTerm() > firstTerm, "Each leadership should have a higher term");
+        
+        assertTrue(follower.resign().get());
+    }
+
+    /**
+    * Test 11: Factories are independent, and every waiter on a key is woken up,
+    * whichever factory it belongs to
+    */
+    @Test
+    public void testIndependentFactories() throws Exception {
+        final String resourceKey = "shared-resource";
+        
+        try (LockFactory other = newFactory()) {
+            ALock holder = factory.builder().timeoutMS(100L).build(resourceKey);
+            ALock waiter1 = factory.builder().timeoutMS(5000L).build(resourceKey);
+            ALock waiter2 = other.builder().timeoutMS(5000L).build(resourceKey);
+            assertTrue(holder.acquire().get(), "Should be able to acquire the lock");
+            
+            CompletableFuture<Boolean> waiting1 = waiter1.acquire();
+            CompletableFuture<Boolean> waiting2 = waiter2.acquire();
+            awaitWaiting(waiter1);
+            awaitWaiting(waiter2);
+            assertTrue(holder.release().get(), "Should be able to release the lock");
+            
+            // One waiter takes the lock, the other keeps waiting instead of being forgotten
+            CompletableFuture.anyOf(waiting1, waiting2).get(1, TimeUnit.SECONDS);
+            final boolean firstWon = waiting1.isDone();
+            ALock winner = firstWon ? waiter1 : waiter2;
+            CompletableFuture<Boolean> losing = firstWon ? waiting2 : waiting1;
+            assertTrue((firstWon ? waiting1 : waiting2).get(), "One waiter should acquire the released lock");
+            assertFalse(losing.isDone(), "The other waiter should still be waiting");
+            
+            assertTrue(winner.release().get(), "Should be able to release the lock");
+            assertTrue(losing.get(1, TimeUnit.SECONDS), "The other waiter should be woken up by the second release");
+            (firstWon ? waiter2 : waiter1).release().get();
+        }
+    }
+
+    /**
+    * Test 12: A factory started in the background queues the lock operations issued
+    * before it is connected, and sends them once it is
+    */
+    @Test
+    public void testAsyncStart() throws Exception {
+        final String resourceKey = "async-resource";
+        
+        try (LockFactory started = startFactory()) {
+            ALock lock = started.builder().timeoutMS(5000L).build(resourceKey);
+            CompletableFuture<Boolean> acquiring = lock.acquire();
+            
+            assertSame(started, started.whenReady().get(5, TimeUnit.SECONDS), "The factory should become ready");
+            assertTrue(started.isReady(), "The factory should report itself ready");
+            assertTrue(acquiring.get(5, TimeUnit.SECONDS), "A lock acquired before the factory was ready should be acquired once it is");
+            assertTrue(factory.createLock(resourceKey).isLocked().get(), "The queued acquisition should hold the lock in the database");
+            assertTrue(lock.release().get(), "Should be able to release the lock");
+        }
+    }
+
+    /**
+    * Test 13: The lock events on a key are streamed to its subscribers as they request
+    * them, and the events on other keys are filtered out
+    */
+    @Test
+    public void testLockEvents() throws Exception {
+        final String resourceKey = "observed-resource";
+        final QueuedEvents received = new QueuedEvents();
+        factory.events(resourceKey).subscribe(received);
+        try {
+            ALock unobserved = factory.createLock("unobserved-resource");
+            assertTrue(unobserved.acquire().get(), "Should be able to acquire the lock");
+            assertTrue(unobserved.release().get(), "Should be able to release the lock");
+            
+            ALock observed = factory.createLock(resourceKey);
+            assertTrue(observed.acquire().get(), "Should be able to acquire the lock");
+            assertTrue(observed.release().get(), "Should be able to release the lock");
+            
+            // Acquisitions are only reported by backends notifying them, releases by every backend
+            LockEvent event = received.poll(1, TimeUnit.SECONDS);
+            while (event != null && event.type() == LockEvent.Type.ACQUIRED) {
+                assertEquals(resourceKey, event.key(), "Only events on the observed key should be received");
+                event = received.poll(1, TimeUnit.SECONDS);
+            }
+            assertNotNull(event, "The release should be received");
+            assertEquals(LockEvent.Type.RELEASED, event.type(), "The release should be received");
+            assertEquals(resourceKey, event.key(), "Only events on the observed key should be received");
+        } finally {
+            received.cancel();
+        }
+    }
+
+    /**
+    * Test 14: Subscribers of a prefix receive the events on every key starting with it, and only those
+    */
+    @Test
+    public void testLockEventsWithPrefix() throws Exception {
+        final String prefix = "observed-prefix:";
+        final QueuedEvents received = new QueuedEvents();
+        factory.eventsWithPrefix(prefix).subscribe(received);
+        try {
+            for (String key : List.of("observed-other:1", prefix + "1", "observed-other:2", prefix + "2")) {
+                ALock lock = factory.createLock(key);
+                assertTrue(lock.acquire().get(), "Should be able to acquire the lock");
+                assertTrue(lock.release().get(), "Should be able to release the lock");
+            }
+            
+            Set<String> released = new HashSet<>();
+            while (released.size() < 2) {
+                LockEvent event = received.poll(1, TimeUnit.SECONDS);
+                assertNotNull(event, "The releases of both keys with the prefix should be received");
+                assertTrue(event.key().startsWith(prefix), "Only events on keys with the prefix should be received, got " + event.key());
+                if (event.type() == LockEvent.Type.RELEASED) {
+                    released.add(event.key());
+                }
+            }
+            assertEquals(Set.of(prefix + "1", prefix + "2"), released);
+        } finally {
+            received.cancel();
+        }
+    }
+
+    /**
+    * Test 15: Events are dropped and counted for a subscriber whose buffer is full, without
+    * holding back the factory or other subscribers, and the events it buffered are still delivered
+    * once it requests them
+    */
+    @Test
+    public void testLockEventsBackpressure() throws Exception {
+        try (LockFactory own = newFactory()) {
+            final LockEventPublisher publisher = ((ALockFactory) own).eventPublisher;
+            final QueuedEvents stalled = new QueuedEvents(0);
+            own.events().subscribe(stalled);
+            final QueuedEvents filtered = new QueuedEvents(0);
+            own.events("kept-resource").subscribe(filtered);
+            
+            // The subscriber requests nothing, so only its buffer's worth of events can be kept
+            final int bufferSize = Flow.defaultBufferSize();
+            for (int i = 0; i < bufferSize * 3; i++) {
+                publisher.publish(LockEvent.Type.RELEASED, "dropped-resource-" + i);
+            }
+            assertTrue(own.getDroppedEvents() >= bufferSize, "Events beyond the buffer should be dropped and counted, got " + own.getDroppedEvents());
+            
+            stalled.request(1);
+            LockEvent event = stalled.poll(1, TimeUnit.SECONDS);
+            assertNotNull(event, "Buffered events should be delivered once requested");
+            assertEquals("dropped-resource-0", event.key(), "The oldest events should be kept and the newest dropped");
+            
+            // Events on other keys do not take room in the buffer of a subscriber filtered to one key
+            publisher.publish(LockEvent.Type.RELEASED, "kept-resource");
+            filtered.request(1);
+            assertEquals(new LockEvent(LockEvent.Type.RELEASED, "kept-resource"), filtered.poll(1, TimeUnit.SECONDS), "The filtered subscriber's event should not be dropped");
+            stalled.cancel();
+            filtered.cancel();
+        }
+    }
+
+    /**
+    * Test 16: A lock reaching its expiration is reported as expired, once
+    */
+    @Test
+    public void testLockExpiredEvent() throws Exception {
+        final String resourceKey = "expiring-observed-resource";
+        final QueuedEvents received = new QueuedEvents();
+        factory.events(resourceKey).subscribe(received);
+        try {
+            ALock lock = factory.builder().expiresAfterMS(100L).timeoutMS(100L).build(resourceKey);
+            assertTrue(lock.acquire().get(), "Should be able to acquire the lock");
+            
+            LockEvent event;
+            do {
+                event = received.poll(2, TimeUnit.SECONDS);
+                assertNotNull(event, "The expiration should be received");
+            } while (event.type() != LockEvent.Type.EXPIRED);
+            assertEquals(resourceKey, event.key());
+            
+            // Let a second report of the same expiration arrive, if any
+            while ((event = received.poll(300, TimeUnit.MILLISECONDS)) != null) {
+                assertNotEquals(LockEvent.Type.EXPIRED, event.type(), "The expiration should be reported once");
+            }
+        } finally {
+            received.cancel();
+        }
+    }
+
+    /**
+    * Test 17: Closing a factory before it is ready fails the lock operations queued meanwhile
+    */
+    @Test
+    public void testCloseBeforeReady() throws Exception {
+        final LockFactory unreachable = startUnreachableFactory();
+        ALock lock = unreachable.builder().timeoutMS(5000L).build("unreachable-resource");
+        CompletableFuture<Boolean> acquiring = lock.acquire();
+        CompletableFuture<Boolean> checking = lock.isLocked();
+        CompletableFuture<LockFactory> ready = unreachable.whenReady();
+        assertFalse(unreachable.isReady(), "The factory should not be ready while its database is unreachable");
+        
+        unreachable.close();
+        for (CompletableFuture<?> queued : List.of(ready, acquiring, checking)) {
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> queued.get(1, TimeUnit.SECONDS), "Queued operations should fail once the factory is closed");
+            assertInstanceOf(IllegalStateException.class, failure.getCause(), "Queued operations should fail because the factory was closed");
+        }
+        assertFalse(unreachable.isReady(), "A factory closed before it was ready should never become ready");
+    }
+
+    /**
+    * Test 18: Closing a factory revokes the leadership of its candidates, which passes to
+    * another candidate once the lease runs out
+    */
+    @Test
+    public void testCloseRevokesLeadership() throws Exception {
+        final LockFactory own = newFactory();
+        ALeaderElection leader = own.createElection("closed-election-resource", 300L);
+        ALeaderElection successor = factory.createElection("closed-election-resource", 300L);
+        CountDownLatch leaderRevoked = new CountDownLatch(1);
+        CountDownLatch successorElected = new CountDownLatch(1);
+        leader.setOnRevoked(term -> leaderRevoked.countDown());
+        successor.setOnElected(term -> successorElected.countDown());
+        
+        assertTrue(leader.start().get(), "First candidate should be elected");
+        own.close();
+        assertFalse(leader.isLeader(), "A candidate of a closed factory should not report itself leader");
+        assertTrue(leaderRevoked.await(1, TimeUnit.SECONDS), "Closing the factory should revoke the leadership");
+        
+        successor.start();
+        assertTrue(successorElected.await(5, TimeUnit.SECONDS), "Another candidate should be elected once the lease runs out");
+        assertTrue(successor.getTerm() > leader.getTerm(), "The new leadership should have a higher term");
+        assertTrue(successor.resign().get());
+    }
+
+    /**
+    * Collects the lock events of a subscription, requesting them one at a time.
+    */
+    protected static class QueuedEvents implements Flow.Subscriber<LockEvent> {
+        private final BlockingQueue<LockEvent> received = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+        private final long initialRequest;
+
+        public QueuedEvents() {
+            this(1);
+        }
+
+        /**
+        * @param initialRequest the number of events requested on subscription, {@code 0} to only
+        *        receive those requested with {@link #request(long)}
+        */
+        public QueuedEvents(final long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription.complete(subscription);
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(LockEvent event) {
+            received.add(event);
+            if (initialRequest > 0) {
+                subscription.join().request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            throwable.printStackTrace();
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        public LockEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+            return received.poll(timeout, unit);
+        }
+
+        public void request(long count) throws Exception {
+            subscription.get(1, TimeUnit.SECONDS).request(count);
+        }
+
+        public void cancel() {
+            subscription.thenAccept(Flow.Subscription::cancel);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.h14turkiye.lockedb;
+
+import java.util.concurrent.CompletableFuture;
+
+import lombok.Getter;
+
+/**
+* Represents a lock on any one of a fixed number of equivalent slots of a named pool.
+* Acquiring takes whichever slot is free in a single call to the database, and waiters
+* are woken up whenever a slot of the pool is released.
+*/
+public abstract class APoolLock extends ALock {
+
+    /** The number of slots in the pool. */
+    @Getter protected final int slots;
+
+    /** The slot held since the last successful acquisition, or {@code -1} if none is held. */
+    @Getter protected volatile int slot = -1;
+
+    protected APoolLock(final ALockFactory factory, final String pool, final int slots) {
+        super(factory);
+        if (slots <= 0) {
+            throw new IllegalArgumentException("A pool must have at least one slot");
+        }
+        this.key = pool;
+        this.slots = slots;
+    }
+
+    /**
+    * Builds the key under which a slot of a pool is stored.
+    *
+    * @param pool the name of the pool
+    * @param slot the slot number
+    * @return the key of the slot
+    */
+    public static String slotKey(final String pool, final int slot) {
+        return slotPrefix(pool) + slot;
+    }
+
+    /**
+    * Builds the beginning shared by the keys of every slot of a pool. The pool name is
+    * wrapped in braces, a Redis Cluster hash tag, so all slots of a pool live on the same node.
+    *
+    * @param pool the name of the pool
+    * @return the prefix of the slot keys, such as {@code "{printers}:slot:"}
+    */
+    public static String slotPrefix(final String pool) {
+        return "{" + pool + "}:slot:";
+    }
+
+    /**
+    * Extracts the pool a slot key belongs to.
+    *
+    * @param key a lock or slot key
+    * @return the name of the pool, or {@code null} if the key is not a slot key
+    */
+    public static String poolOf(final String key) {
+        if (!key.startsWith("{")) return null;
+        final int index = key.lastIndexOf("}:slot:");
+        return index < 0 ? null : key.substring(1, index);
+    }
+
+    /**
+    * Not supported, pool locks do not carry a value.
+    *
+    * @return a CompletableFuture failed with an {@link IllegalStateException}
+    */
+    @Override
+    public CompletableFuture<Boolean> release(final String newValue) {
+        return CompletableFuture.failedFuture(new IllegalStateException("Pool locks do not carry a value"));
+    }
+
+    @Override
+    protected String eventKey() {
+        return slotKey(key, slot);
+    }
+
+    @Override
+    void releaseLocally() {
+        onSlotReleased();
+    }
+
+    /**
+    * Completes the current acquisition with a slot taken in the database.
+    * Must be called by implementations once a slot has been taken.
+    *
+    * @param taken the slot that was taken
+    * @return {@code true} if this lock now holds the slot, {@code false} if the acquisition
+    *         was already resolved, in which case the slot must be given back
+    */
+    protected synchronized boolean onSlotTaken(final int taken) {
+        if (acquireFuture.isDone()) return false;
+
+        slot = taken;
+        if (acquireFuture.complete(true)) {
+            onAcquired();
+            return true;
+        }
+        slot = -1;
+        return false;
+    }
+
+    /**
+    * Resolves the current acquisition and gives up the held slot.
+    * Must be called by implementations when the lock is released.
+    *
+    * @return the slot that was held, or {@code -1} if none was held
+    */
+    protected synchronized int onSlotReleased() {
+        acquireFuture.complete(null);
+        onReleased();
+        final int held = slot;
+        slot = -1;
+        return held;
+    }
+}
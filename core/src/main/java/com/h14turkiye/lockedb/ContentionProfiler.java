@@ -0,0 +1,231 @@
+package com.h14turkiye.lockedb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Tracks which lock keys cause the most contention.
+ *
+ * Per-key waits, wait time and hold time are counted in a count-min sketch, and the
+ * keys with the most waits are kept in a bounded top-K heap, so memory stays fixed
+ * regardless of how many keys are used. Estimates may overcount but never undercount.
+ */
+public class ContentionProfiler {
+    private static final Logger LOGGER = LogManager.getLogger(ContentionProfiler.class);
+
+    // Counters stored for every cell of the sketch
+    private static final int WAITS = 0;
+    private static final int WAIT_NANOS = 1;
+    private static final int HOLDS = 2;
+    private static final int HOLD_NANOS = 3;
+    private static final int COUNTERS = 4;
+
+    private final int width;
+    private final int depth;
+    private final int topK;
+    private final AtomicLongArray sketch;
+
+    // Min-heap of the heaviest keys by estimated waits, with an index for updates
+    private final PriorityQueue<Candidate> heap;
+    private final Map<String, Candidate> candidates = new HashMap<>();
+
+    private volatile Thread logger;
+
+    /**
+     * Constructs a ContentionProfiler with a 4 x 2048 sketch tracking the 20 heaviest keys.
+     */
+    public ContentionProfiler() {
+        this(2048, 4, 20);
+    }
+
+    /**
+     * Constructs a ContentionProfiler.
+     *
+     * @param width the number of counters per sketch row, higher values reduce overcounting
+     * @param depth the number of sketch rows, higher values reduce the chance of overcounting
+     * @param topK the number of heaviest keys to track
+     */
+    public ContentionProfiler(final int width, final int depth, final int topK) {
+        if (width <= 0 || depth <= 0 || topK <= 0) {
+            throw new IllegalArgumentException("width, depth and topK must be positive");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.topK = topK;
+        this.sketch = new AtomicLongArray(width * depth * COUNTERS);
+        this.heap = new PriorityQueue<>(topK, (a, b) -> Long.compare(a.waits, b.waits));
+    }
+
+    /**
+     * Records an acquisition that had to wait because the lock was held.
+     *
+     * @param key the contended key
+     * @param waitNanos the time spent waiting, whether or not the lock was acquired in the end
+     */
+    public void recordWait(final String key, final long waitNanos) {
+        final long hash = hash(key);
+        long waits = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int cell = cell(hash, row);
+            waits = Math.min(waits, sketch.incrementAndGet(cell + WAITS));
+            sketch.addAndGet(cell + WAIT_NANOS, waitNanos);
+        }
+        offer(key, waits);
+    }
+
+    /**
+     * Records a lock being released after it was held.
+     *
+     * @param key the released key
+     * @param holdNanos the time the lock was held
+     */
+    public void recordHold(final String key, final long holdNanos) {
+        final long hash = hash(key);
+        for (int row = 0; row < depth; row++) {
+            int cell = cell(hash, row);
+            sketch.incrementAndGet(cell + HOLDS);
+            sketch.addAndGet(cell + HOLD_NANOS, holdNanos);
+        }
+    }
+
+    /**
+     * Returns the heaviest keys seen so far, most contended first.
+     *
+     * @return the estimated statistics of the tracked keys
+     */
+    public List<HotKey> snapshot() {
+        List<String> keys;
+        synchronized (heap) {
+            keys = new ArrayList<>(candidates.keySet());
+        }
+
+        List<HotKey> hotKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            hotKeys.add(new HotKey(key, estimate(key, WAITS), estimate(key, WAIT_NANOS), estimate(key, HOLDS), estimate(key, HOLD_NANOS)));
+        }
+        hotKeys.sort((a, b) -> Long.compare(b.waits(), a.waits()));
+        return hotKeys;
+    }
+
+    /**
+     * Starts logging a snapshot of the heaviest keys at a fixed interval.
+     * Does nothing if logging has already been started.
+     *
+     * @param intervalMS the interval between log lines in milliseconds
+     */
+    public synchronized void startLogging(final long intervalMS) {
+        if (logger != null) return;
+
+        logger = Thread.ofVirtual().name("lockedb-contention-profiler").start(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(intervalMS);
+                    List<HotKey> hotKeys = snapshot();
+                    if (!hotKeys.isEmpty()) {
+                        LOGGER.info("Most contended lock keys: {}", hotKeys);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /**
+     * Stops the periodic logging started by {@link #startLogging(long)}.
+     */
+    public synchronized void stopLogging() {
+        if (logger != null) {
+            logger.interrupt();
+            logger = null;
+        }
+    }
+
+    private void offer(final String key, final long waits) {
+        synchronized (heap) {
+            Candidate candidate = candidates.get(key);
+            if (candidate != null) {
+                heap.remove(candidate);
+                candidate.waits = waits;
+                heap.add(candidate);
+                return;
+            }
+
+            if (heap.size() >= topK) {
+                if (heap.peek().waits >= waits) return;
+                candidates.remove(heap.poll().key);
+            }
+            candidate = new Candidate(key, waits);
+            candidates.put(key, candidate);
+            heap.add(candidate);
+        }
+    }
+
+    private long estimate(final String key, final int counter) {
+        final long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, sketch.get(cell(hash, row) + counter));
+        }
+        return estimate;
+    }
+
+    private int cell(final long hash, final int row) {
+        // Combine two halves of the key's hash into one hash per row, so rows stay independent
+        int rowHash = (int) hash + row * (int) (hash >>> 32);
+        int column = (rowHash & Integer.MAX_VALUE) % width;
+        return (row * width + column) * COUNTERS;
+    }
+
+    /**
+     * Hashes the characters of a key to 64 bits, so keys sharing a {@code hashCode()} still
+     * land in different cells.
+     */
+    private static long hash(final String key) {
+        // FNV-1a over the characters, then the MurmurHash3 finalizer to spread every bit
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static class Candidate {
+        private final String key;
+        private long waits;
+
+        private Candidate(final String key, final long waits) {
+            this.key = key;
+            this.waits = waits;
+        }
+    }
+
+    /**
+     * Estimated contention statistics of a key.
+     *
+     * @param key the lock key
+     * @param waits the number of acquisitions that had to wait
+     * @param waitNanos the total time spent waiting
+     * @param holds the number of times the lock was released after being held
+     * @param holdNanos the total time the lock was held
+     */
+    public record HotKey(String key, long waits, long waitNanos, long holds, long holdNanos) {
+        @Override
+        public String toString() {
+            return key + "[waits=" + waits + ", waitMS=" + waitNanos / 1_000_000 + ", holds=" + holds + ", holdMS=" + holdNanos / 1_000_000 + "]";
+        }
+    }
+}
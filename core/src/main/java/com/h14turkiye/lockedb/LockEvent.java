@@ -0,0 +1,22 @@
+package com.h14turkiye.lockedb;
+
+/**
+* A change of a lock's state, as notified to a factory by its database backend.
+*
+* @param type what happened to the lock
+* @param key the key of the lock, or of the slot for pool locks and of the leader key for elections
+*/
+public record LockEvent(Type type, String key) {
+
+    /**
+    * The kinds of lock state changes.
+    */
+    public enum Type {
+        /** The lock was taken or handed over to a new holder. */
+        ACQUIRED,
+        /** The lock was released or removed, and can be acquired again. */
+        RELEASED,
+        /** The lease of the lock ran out before it was released. */
+        EXPIRED
+    }
+}
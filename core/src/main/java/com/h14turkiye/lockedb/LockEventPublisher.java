@@ -0,0 +1,119 @@
+package com.h14turkiye.lockedb;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+* Streams the lock events of a factory to its subscribers.
+*
+* Each subscriber gets a bounded buffer and receives events as it requests them. Events are
+* filtered by key before they enter a subscriber's buffer, so events on other keys never take
+* its room. Events are never held back for a slow subscriber: once its buffer is full, further
+* events are dropped for that subscriber only and counted in {@link #getDropped()}. Nothing is
+* allocated while there are no subscribers.
+*/
+public class LockEventPublisher {
+    private final Executor executor;
+    private final int bufferSize;
+    private final LongAdder dropped = new LongAdder();
+
+    // One publisher per subscription, holding only the events on the keys it subscribed to
+    private final List<FilteredPublisher> publishers = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+    * Constructs a LockEventPublisher.
+    *
+    * @param executor the executor delivering events to subscribers
+    * @param bufferSize the maximum number of events buffered per subscriber
+    */
+    public LockEventPublisher(final Executor executor, final int bufferSize) {
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+    * @return {@code true} if at least one subscriber receives events
+    */
+    public boolean hasSubscribers() {
+        for (FilteredPublisher filtered : publishers) {
+            if (filtered.publisher().hasSubscribers()) return true;
+        }
+        return false;
+    }
+
+    /**
+    * Offers an event to every subscriber of its key without blocking.
+    *
+    * @param type what happened to the lock
+    * @param key the key of the lock
+    */
+    public void publish(final LockEvent.Type type, final String key) {
+        if (publishers.isEmpty()) return;
+
+        LockEvent event = null;
+        for (FilteredPublisher filtered : publishers) {
+            if (!filtered.publisher().hasSubscribers()) {
+                // The subscription was cancelled
+                publishers.remove(filtered);
+                filtered.publisher().close();
+                continue;
+            }
+            if (!filtered.keyFilter().test(key)) continue;
+
+            if (event == null) {
+                event = new LockEvent(type, key);
+            }
+            try {
+                filtered.publisher().offer(event, (subscriber, dropping) -> {
+                    dropped.increment();
+                    return false;
+                });
+            } catch (IllegalStateException e) {
+                // Closed along with the factory, the event has nobody to go to
+            }
+        }
+    }
+
+    /**
+    * @param keyFilter the keys whose events are delivered
+    * @return a publisher of the events on the matching keys
+    */
+    public Flow.Publisher<LockEvent> filter(final Predicate<String> keyFilter) {
+        return subscriber -> {
+            final FilteredPublisher filtered = new FilteredPublisher(keyFilter, new SubmissionPublisher<>(executor, bufferSize));
+            filtered.publisher().subscribe(subscriber);
+            publishers.add(filtered);
+            if (closed) {
+                // Subscribed while the factory was closing, complete the subscription right away
+                publishers.remove(filtered);
+                filtered.publisher().close();
+            }
+        };
+    }
+
+    /**
+    * @return the number of events dropped because a subscriber's buffer was full
+    */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+    * Completes every subscription. Events published afterwards are ignored.
+    */
+    public void close() {
+        closed = true;
+        for (FilteredPublisher filtered : publishers) {
+            filtered.publisher().close();
+        }
+        publishers.clear();
+    }
+
+    private record FilteredPublisher(Predicate<String> keyFilter, SubmissionPublisher<LockEvent> publisher) {}
+}
@@ -1,13 +1,97 @@
 package com.h14turkiye.lockedb;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 
-public interface LockFactory {
+public interface LockFactory extends AutoCloseable {
     // Builder pattern approach
     public ALockBuilder builder();
 
     // Direct creation approach
     public ALock createLock(String key);
 
+    /**
+     * Creates a lock on any one of the slots of a pool, with the default builder settings.
+     *
+     * @param pool the unique name of the pool
+     * @param slots the number of slots in the pool
+     * @return a lock that acquires whichever slot of the pool is free
+     */
+    public APoolLock createPool(String pool, int slots);
+
+    /**
+     * Creates a candidate of a leader election. The candidate takes part once started.
+     *
+     * @param name the name shared by all candidates of the election
+     * @param leaseMS the duration of the leader's lease, which bounds the failover time after a crash
+     * @return a candidate of the election
+     */
+    public ALeaderElection createElection(String name, long leaseMS);
+
     public CompletableFuture<String> getPassword(String key);
+
+    /**
+     * Releases every lock currently held through this factory in a single round trip.
+     * Intended for shutdown and redeploys, so held locks do not linger until they expire.
+     *
+     * @return a CompletableFuture that resolves to the number of locks that were released
+     */
+    public CompletableFuture<Integer> releaseAll();
+
+    /**
+     * Enables profiling of contended keys for locks created by this factory.
+     *
+     * @param profiler the profiler to record into, or {@code null} to disable profiling
+     */
+    public void setProfiler(ContentionProfiler profiler);
+
+    /**
+     * @return the profiler of contended keys, or {@code null} if profiling is disabled
+     */
+    public ContentionProfiler getProfiler();
+
+    /**
+     * Streams the lock events this factory is notified of by its backend, on every key.
+     * Each subscriber has a bounded buffer of {@link Flow#defaultBufferSize()} events and receives
+     * them as it requests them. Events arriving while its buffer is full are dropped for that subscriber.
+     * Which events a backend reports is described in {@link LockEvent.Type} and the backend's documentation.
+     *
+     * @return a publisher of the lock events on every key
+     */
+    public Flow.Publisher<LockEvent> events();
+
+    /**
+     * @param key the key of a lock
+     * @return a publisher of the lock events on the given key
+     * @see #events()
+     */
+    public Flow.Publisher<LockEvent> events(String key);
+
+    /**
+     * @param prefix the beginning of the keys of interest, such as the {@link APoolLock#slotPrefix(String) slot prefix} of a pool
+     * @return a publisher of the lock events on the keys starting with the given prefix
+     * @see #events()
+     */
+    public Flow.Publisher<LockEvent> eventsWithPrefix(String prefix);
+
+    /**
+     * @return {@code true} once this factory is connected to its backend
+     */
+    public boolean isReady();
+
+    /**
+     * Factories started asynchronously connect in the background and queue the lock
+     * operations issued before they are ready. Factories constructed directly are ready right away.
+     *
+     * @return a CompletableFuture that resolves to this factory once it is ready,
+     *         or fails if the factory is closed before
+     */
+    public CompletableFuture<LockFactory> whenReady();
+
+    /**
+     * Closes the connections and watchers of this factory, and its executor if the factory created it.
+     * Locks created by this factory cannot be used afterwards.
+     */
+    @Override
+    public void close();
 }
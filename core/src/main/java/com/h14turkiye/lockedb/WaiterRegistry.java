@@ -0,0 +1,65 @@
+package com.h14turkiye.lockedb;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+* Tracks the locks of a factory waiting for a database notification, grouped by key.
+* Any number of waiters can wait on the same key, and all of them are woken up by
+* a notification for that key.
+*
+* @param <T> the type of the waiters
+*/
+public class WaiterRegistry<T> {
+    private final ConcurrentMap<String, Set<T>> waiters = new ConcurrentHashMap<>();
+
+    /**
+    * Registers a waiter for notifications on a key.
+    *
+    * @param key the key to wait on
+    * @param waiter the waiter to wake up
+    */
+    public void add(final String key, final T waiter) {
+        waiters.compute(key, (k, keyWaiters) -> {
+            if (keyWaiters == null) {
+                keyWaiters = ConcurrentHashMap.newKeySet();
+            }
+            keyWaiters.add(waiter);
+            return keyWaiters;
+        });
+    }
+
+    /**
+    * Unregisters a waiter.
+    *
+    * @param key the key the waiter waits on
+    * @param waiter the waiter to remove
+    * @return {@code true} if the waiter was registered
+    */
+    public boolean remove(final String key, final T waiter) {
+        final boolean[] removed = new boolean[1];
+        waiters.computeIfPresent(key, (k, keyWaiters) -> {
+            removed[0] = keyWaiters.remove(waiter);
+            return keyWaiters.isEmpty() ? null : keyWaiters;
+        });
+        return removed[0];
+    }
+
+    /**
+    * @param key a key
+    * @return the waiters currently registered on the key, possibly empty
+    */
+    public Set<T> get(final String key) {
+        final Set<T> keyWaiters = waiters.get(key);
+        return keyWaiters != null ? keyWaiters : Collections.emptySet();
+    }
+
+    /**
+    * @return {@code true} if no waiter is registered on any key
+    */
+    public boolean isEmpty() {
+        return waiters.isEmpty();
+    }
+}
@@ -0,0 +1,34 @@
+package com.h14turkiye.lockedb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning a lock acquisition, from the call to acquire until its future is completed.
+ */
+@Name("com.h14turkiye.lockedb.LockAcquire")
+@Label("Lock Acquire")
+@Category("Lockedb")
+@Description("Acquisition of a distributed lock")
+@StackTrace(false)
+public class LockAcquireEvent extends jdk.jfr.Event {
+    @Label("Key")
+    public String key;
+
+    @Label("Backend")
+    public String backend;
+
+    @Label("Outcome")
+    @Description("ACQUIRED, TIMEOUT, CANCELLED or FAILED")
+    public String outcome;
+
+    @Label("Round Trips")
+    @Description("Number of calls made to the backend during the acquisition")
+    public int roundTrips;
+
+    @Label("Fair")
+    public boolean fair;
+}
@@ -0,0 +1,27 @@
+package com.h14turkiye.lockedb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted when a backend notification wakes up a waiting lock.
+ */
+@Name("com.h14turkiye.lockedb.LockNotify")
+@Label("Lock Notify")
+@Category("Lockedb")
+@Description("Notification waking up a waiting distributed lock")
+@StackTrace(false)
+public class LockNotifyEvent extends jdk.jfr.Event {
+    @Label("Key")
+    public String key;
+
+    @Label("Backend")
+    public String backend;
+
+    @Label("Type")
+    @Description("DELETE when the lock was removed, GRANT when it was handed over")
+    public String type;
+}
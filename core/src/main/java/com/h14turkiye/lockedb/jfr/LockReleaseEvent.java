@@ -0,0 +1,36 @@
+package com.h14turkiye.lockedb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event emitted when a lock is released or expires.
+ */
+@Name("com.h14turkiye.lockedb.LockRelease")
+@Label("Lock Release")
+@Category("Lockedb")
+@Description("Release or expiration of a distributed lock")
+@StackTrace(false)
+public class LockReleaseEvent extends jdk.jfr.Event {
+    @Label("Key")
+    public String key;
+
+    @Label("Backend")
+    public String backend;
+
+    @Label("Expired")
+    @Description("Whether the release was triggered by the lock's expiration")
+    public boolean expired;
+
+    @Label("Held")
+    @Description("Whether the lock was held when it was released")
+    public boolean held;
+
+    @Label("Hold Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long holdTime;
+}
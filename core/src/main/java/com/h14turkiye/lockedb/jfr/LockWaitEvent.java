@@ -0,0 +1,23 @@
+package com.h14turkiye.lockedb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning the time a rejected acquisition waits for a notification.
+ */
+@Name("com.h14turkiye.lockedb.LockWait")
+@Label("Lock Wait")
+@Category("Lockedb")
+@Description("Time spent waiting for a held distributed lock")
+@StackTrace(false)
+public class LockWaitEvent extends jdk.jfr.Event {
+    @Label("Key")
+    public String key;
+
+    @Label("Backend")
+    public String backend;
+}
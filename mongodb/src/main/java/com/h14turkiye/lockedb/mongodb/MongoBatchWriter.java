@@ -0,0 +1,247 @@
+package com.h14turkiye.lockedb.mongodb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.Document;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Group-commits lock writes.
+ *
+ * Inserts, upserts and deletes issued within a short window are sent together as a
+ * single unordered {@code bulkWrite}, and the outcome of each operation is mapped back
+ * to its caller's future. The number of writes sent to the server then scales with the
+ * batch size instead of the number of callers. As the server only reports how many
+ * documents a bulk write deleted in total, the deletes of a batch are resolved from that
+ * count when none or all of them deleted a document. Otherwise each delete is reported
+ * as deleted unless a document with its id remains, which is checked off the flusher.
+ */
+public class MongoBatchWriter {
+    private final MongoCollection<Document> collection;
+    private final int maxBatchSize;
+    private final long maxDelayMS;
+
+    private final ExecutorService executor;
+
+    private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Future<?> flusher;
+
+    // Bulk writes sent and the operations they carried
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedWrites = new LongAdder();
+
+    /**
+     * Constructs a MongoBatchWriter and starts flushing batches in the background.
+     *
+     * @param collection the collection to write to
+     * @param maxBatchSize the maximum number of operations sent in one bulkWrite
+     * @param maxDelayMS how long the first operation of a batch waits for others to join it,
+     *        {@code 0} to only batch operations issued while the previous batch was being written
+     * @param executor the executor running the flusher, which occupies one of its threads,
+     *        and resolving the deletes a bulk write's deleted count leaves ambiguous
+     */
+    public MongoBatchWriter(final MongoCollection<Document> collection, final int maxBatchSize, final long maxDelayMS, final ExecutorService executor) {
+        if (maxBatchSize <= 0 || maxDelayMS < 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive and maxDelayMS must not be negative");
+        }
+        this.collection = collection;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMS = maxDelayMS;
+        this.executor = executor;
+        this.flusher = executor.submit(this::run);
+    }
+
+    /**
+     * Queues the insertion of a document.
+     *
+     * @param document the document to insert
+     * @return a CompletableFuture that resolves to {@code true} if the document was inserted,
+     *         or {@code false} if a document with the same id already exists
+     */
+    public CompletableFuture<Boolean> insert(final Document document) {
+        return submit(new PendingWrite(new InsertOneModel<>(document)));
+    }
+
+    /**
+     * Queues an update of a single document, inserting it if no document matches.
+     *
+     * @param filter the filter selecting the document
+     * @param update the update to apply
+     * @return a CompletableFuture that resolves to {@code true} if the document was updated or inserted,
+     *         or {@code false} if the insertion conflicted with an existing document
+     */
+    public CompletableFuture<Boolean> upsert(final Document filter, final Document update) {
+        return submit(new PendingWrite(new UpdateOneModel<>(filter, update, new UpdateOptions().upsert(true))));
+    }
+
+    /**
+     * Queues the deletion of a single document.
+     *
+     * @param filter the filter selecting the document
+     * @return a CompletableFuture that resolves to {@code true} if a document was deleted
+     */
+    public CompletableFuture<Boolean> delete(final Document filter) {
+        return submit(new PendingWrite(new DeleteOneModel<>(filter)));
+    }
+
+    /**
+     * Stops flushing batches. Operations still queued fail.
+     */
+    public void close() {
+        flusher.cancel(true);
+        failQueued();
+    }
+
+    private CompletableFuture<Boolean> submit(final PendingWrite write) {
+        queue.add(write);
+        if (flusher.isDone()) {
+            failQueued();
+        }
+        return write.future;
+    }
+
+    private void failQueued() {
+        PendingWrite write;
+        while ((write = queue.poll()) != null) {
+            write.future.completeExceptionally(new IllegalStateException("MongoBatchWriter is closed"));
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMS);
+                while (batch.size() < maxBatchSize) {
+                    PendingWrite next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                try {
+                    flush(batch);
+                } catch (Exception e) {
+                    for (PendingWrite write : batch) {
+                        write.future.completeExceptionally(e);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (PendingWrite write : batch) {
+            write.future.completeExceptionally(new IllegalStateException("MongoBatchWriter is closed"));
+        }
+    }
+
+    private void flush(final List<PendingWrite> batch) {
+        List<WriteModel<Document>> models = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            models.add(write.model);
+        }
+
+        Map<Integer, BulkWriteError> errors = new HashMap<>();
+        int deleted;
+        try {
+            deleted = collection.bulkWrite(models, new BulkWriteOptions().ordered(false)).getDeletedCount();
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                errors.put(error.getIndex(), error);
+            }
+            deleted = e.getWriteResult().getDeletedCount();
+        }
+        batches.increment();
+        batchedWrites.add(models.size());
+
+        List<PendingWrite> deletes = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            PendingWrite write = batch.get(i);
+            BulkWriteError error = errors.get(i);
+            if (error == null) {
+                if (write.delete) {
+                    deletes.add(write);
+                }
+                else {
+                    write.future.complete(true);
+                }
+            }
+            else if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+                write.future.complete(false);
+            }
+            else {
+                write.future.completeExceptionally(new IllegalStateException("Bulk write failed: " + error.getMessage()));
+            }
+        }
+
+        // The bulk result only counts deletions in total, which settles every delete when none or all of them matched
+        if (deleted == 0 || deleted == deletes.size()) {
+            for (PendingWrite write : deletes) {
+                write.future.complete(deleted != 0);
+            }
+        }
+        else {
+            executor.execute(() -> resolveDeletes(deletes));
+        }
+    }
+
+    /**
+     * Resolves deletes whose outcome the bulk write's deleted count leaves ambiguous.
+     * A delete whose document still exists did not match it, the others are reported as deleted.
+     */
+    private void resolveDeletes(final List<PendingWrite> deletes) {
+        for (PendingWrite write : deletes) {
+            try {
+                Object id = ((Document) ((DeleteOneModel<Document>) write.model).getFilter()).get("_id");
+                write.future.complete(collection.find(new Document("_id", id)).first() == null);
+            } catch (Exception e) {
+                write.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bulk writes sent so far
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the number of operations sent in bulk writes so far
+     */
+    public long getBatchedWrites() {
+        return batchedWrites.sum();
+    }
+
+    private static class PendingWrite {
+        private final WriteModel<Document> model;
+        private final boolean delete;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private PendingWrite(final WriteModel<Document> model) {
+            this.model = model;
+            this.delete = model instanceof DeleteOneModel;
+        }
+    }
+}
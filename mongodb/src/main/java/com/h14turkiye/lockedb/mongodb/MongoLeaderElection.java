@@ -0,0 +1,104 @@
+package com.h14turkiye.lockedb.mongodb;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.bson.Document;
+
+import com.h14turkiye.lockedb.ALeaderElection;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+
+public class MongoLeaderElection extends ALeaderElection {
+
+    // The factory owning the collection and candidate registry this election uses
+    private final MongoLockFactory mongoFactory;
+
+    public MongoLeaderElection(final String name, final long leaseMS, final MongoLockFactory factory) {
+        super(factory, name, leaseMS);
+        this.mongoFactory = factory;
+    }
+
+    /**
+    * Called when the leadership has been given up while this candidate follows it.
+    */
+    void onLeadershipVacated() {
+        onVacated();
+    }
+
+    /**
+    * @return the aggregation expression of the server's current time in milliseconds, the
+    *         unit of the "expires" field
+    */
+    private static Document serverTime() {
+        return new Document("$toLong", "$$NOW");
+    }
+
+    /**
+    * @return the update pipeline stage extending the lease from the server's current time
+    */
+    private Document extendLease() {
+        return new Document("$set", new Document("expires", new Document("$add", List.of(serverTime(), leaseMS))));
+    }
+
+    /**
+    * Takes the leadership with a single findOneAndUpdate, incrementing the term kept in the
+    * leader document. The document is upserted on the first election and conflicts on its id
+    * while the leadership is held. It carries no owner, so {@code releaseAll()} leaves it alone.
+    * Leases are read and written against the server's clock, so candidates need not agree on the time.
+    */
+    @Override
+    protected CompletableFuture<Ballot> tryAcquire() {
+        return supplyAsync(() -> {
+            final Document free = new Document("$or", List.of(
+            new Document("$eq", Arrays.asList(new Document("$ifNull", Arrays.asList("$uuid", null)), null)),
+            new Document("$lt", List.of("$expires", serverTime()))));
+            final Document filter = new Document("_id", key).append("$expr", free);
+            final List<Document> update = List.of(
+            new Document("$set", new Document("uuid", candidate)
+            .append("term", new Document("$add", List.of(new Document("$ifNull", List.of("$term", 0L)), 1L)))),
+            extendLease());
+
+            try {
+                Document leaderDoc = mongoFactory.locksCollection.findOneAndUpdate(filter, update, new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+                return new Ballot(true, leaderDoc.get("term", Number.class).longValue(), 0);
+            } catch (MongoCommandException e) {
+                if (ErrorCategory.fromErrorCode(e.getErrorCode()) != ErrorCategory.DUPLICATE_KEY) throw e;
+                Document lease = mongoFactory.locksCollection.aggregate(List.of(
+                new Document("$match", new Document("_id", key)),
+                new Document("$project", new Document("leaseLeft", new Document("$subtract", List.of("$expires", serverTime())))))).first();
+                long leaseLeft = lease != null ? lease.get("leaseLeft", Number.class).longValue() : 0L;
+                return new Ballot(false, 0, leaseLeft);
+            }
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> renew() {
+        return supplyAsync(() -> {
+            final Document filter = new Document("_id", key).append("uuid", candidate);
+            return mongoFactory.locksCollection.updateOne(filter, List.of(extendLease())).getMatchedCount() == 1;
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> vacate() {
+        return supplyAsync(() -> {
+            final Document filter = new Document("_id", key).append("uuid", candidate);
+            return mongoFactory.locksCollection.updateOne(filter, MongoLock.vacate()).getModifiedCount() == 1;
+        });
+    }
+
+    @Override
+    protected void follow(final boolean follow) {
+        if (follow) {
+            mongoFactory.elections.add(key, this);
+        }
+        else {
+            mongoFactory.elections.remove(key, this);
+        }
+    }
+}
@@ -1,54 +1,80 @@
 package com.h14turkiye.lockedb.mongodb;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.function.Consumer;
 
 import org.bson.Document;
 
 import com.h14turkiye.lockedb.ALock;
 import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoWriteException;
-import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.UpdateOptions;
-import com.mongodb.client.model.changestream.ChangeStreamDocument;
-import com.mongodb.client.model.changestream.OperationType;
 
 public class MongoLock extends ALock {
-    // Use a ConcurrentHashMap for thread-safe operations and faster lookups.
-    public static ConcurrentMap<String, MongoLock> _retryingLocks = new ConcurrentHashMap<>();
-    
-    public static void _startWatch(final MongoCollection<Document> collection) {
-        MongoLock.locksCollection = collection;
-        executor.submit(() -> {
-            collection.watch().forEach((Consumer<ChangeStreamDocument<Document>>) event -> {
-                if (event.getOperationType().equals(OperationType.DELETE)) {
-                    final String documentKey = event.getDocumentKey().getString("_id").getValue();
-                    final MongoLock lock = _retryingLocks.get(documentKey);
-                    if (lock != null) {
-                        lock.attemptLockAcquisition();
-                        _retryingLocks.remove(documentKey);
-                    }
-                }
-            });
-        });
+    /**
+    * The update vacating a guarded lock's document instead of deleting it, so its guarded value is kept.
+    */
+    static Document vacate() {
+        return new Document("$set", new Document("uuid", null).append("owner", null).append("password", null).append("expires", 0L));
     }
     
-    private static MongoCollection<Document> locksCollection;
+    // The factory owning the collection, batch writer and waiter registries this lock uses
+    private final MongoLockFactory mongoFactory;
     
+    public MongoLock(final String key, final MongoLockFactory factory) {
+        super(factory);
+        this.mongoFactory = factory;
+        this.key = key;
+    }
     
+    /**
+    * Called when the lock document has been removed or vacated while this lock waits to retry.
+    */
+    void onLockReleased() {
+        onNotified("DELETE");
+        attemptLockAcquisition();
+    }
     
-    public MongoLock(final String key) {
-        this.key = key;
+    /**
+    * Called when the lock document has been removed without a hand-off while this fair lock is queued.
+    */
+    void onQueueReleased() {
+        onNotified("DELETE");
+        attemptFairAcquisition();
+    }
+    
+    /**
+    * Called when the lock has been handed over to this fair lock.
+    */
+    void onLockGranted() {
+        onNotified("GRANT");
+        executor.execute(this::onGranted);
     }
     
     public CompletableFuture<Boolean> release() {
         acquireFuture.complete(null);
+        onReleased();
+        if (fair) {
+            removeFairWaiter();
+            return supplyAsync(this::releaseFair);
+        }
+        final Document filter = new Document("_id", key).append("password", password).append("uuid", uuid);
+        if (guarded) {
+            return supplyAsync(() -> {
+                return mongoFactory.locksCollection.updateOne(filter, vacate()).getModifiedCount() == 1;
+            });
+        }
+        if (mongoFactory.writer != null) {
+            return mongoFactory.writer.delete(filter);
+        }
         try {
-            return CompletableFuture.supplyAsync(() -> {
-                return (locksCollection.deleteOne(new Document("_id", key).append("password", password).append("uuid", uuid)).getDeletedCount() == 1);
-            }, executor);
+            return supplyAsync(() -> {
+                return (mongoFactory.locksCollection.deleteOne(filter).getDeletedCount() == 1);
+            });
             
         } catch (final Exception e) {
             e.printStackTrace();
@@ -56,31 +82,289 @@ public class MongoLock extends ALock {
         return null;
     }
     
+    /**
+    * Inserts a lock document, through the batch writer if group commit is enabled.
+    *
+    * @return {@code true} if the document was inserted, {@code false} if the lock already exists
+    */
+    private boolean insert(final Document lockDoc) {
+        if (mongoFactory.writer != null) {
+            return mongoFactory.writer.insert(lockDoc).join();
+        }
+        try {
+            mongoFactory.locksCollection.insertOne(lockDoc);
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) return false;
+            throw e;
+        }
+    }
+    
+    /**
+    * Updates or inserts a lock document, through the batch writer if group commit is enabled.
+    *
+    * @return {@code true} if the document was updated or inserted, {@code false} if the insertion
+    *         conflicted with a lock document that does not match the filter
+    */
+    private boolean upsert(final Document filter, final Document update) {
+        if (mongoFactory.writer != null) {
+            return mongoFactory.writer.upsert(filter, update).join();
+        }
+        try {
+            mongoFactory.locksCollection.updateOne(filter, update, new UpdateOptions().upsert(true));
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) return false;
+            throw e;
+        }
+    }
+    
     public CompletableFuture<Boolean> isLocked() {
-        return CompletableFuture.supplyAsync(() -> findKey(key) != null, executor);
+        return supplyAsync(() -> {
+            Document lock = findKey(key);
+            return lock != null && lock.get("uuid") != null;
+        });
+    }
+    
+    public CompletableFuture<Boolean> release(final String newValue) {
+        if (!guarded) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Only guarded locks carry a value"));
+        }
+        acquireFuture.complete(null);
+        onReleased();
+        final long expectedVersion = version;
+        return supplyAsync(() -> {
+            final Document filter = new Document("_id", key).append("uuid", uuid).append("version", expectedVersion);
+            final Document update = vacate();
+            update.get("$set", Document.class).append("value", newValue);
+            update.append("$inc", new Document("version", 1L));
+            if (mongoFactory.locksCollection.updateOne(filter, update).getModifiedCount() == 1) {
+                value = newValue;
+                version = expectedVersion + 1;
+                return true;
+            }
+            // The value changed since it was read, release without writing it
+            mongoFactory.locksCollection.updateOne(new Document("_id", key).append("uuid", uuid), vacate());
+            return false;
+        });
+    }
+    
+    /**
+    * Takes the lock and reads its guarded value in a single findOneAndUpdate.
+    * The lock document is upserted if it does not exist yet, and conflicts on its id
+    * if the lock is held.
+    */
+    private void attemptGuardedAcquisition() {
+        final long currentTime = System.currentTimeMillis();
+        final List<Document> free = new ArrayList<>();
+        free.add(new Document("uuid", null));
+        free.add(new Document("expires", new Document("$lt", currentTime)));
+        if (password != null) {
+            free.add(new Document("password", password));
+        }
+        final Document filter = new Document("_id", key).append("$or", free);
+        final Document update = new Document("$set", new Document("uuid", uuid)
+        .append("owner", factory.getOwner())
+        .append("password", password)
+        .append("expires", currentTime + expiresAfterMS)
+        .append("guarded", true))
+        .append("$max", new Document("version", 0L));
+        
+        try {
+            onRoundTrip();
+            Document lock = mongoFactory.locksCollection.findOneAndUpdate(filter, update, new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+            value = lock.getString("value");
+            version = lock.get("version", Number.class).longValue();
+            onAcquired();
+            acquireFuture.complete(true);
+        } catch (MongoCommandException e) {
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) != ErrorCategory.DUPLICATE_KEY) throw e;
+            onContended();
+            mongoFactory.retryingLocks.add(key, this);
+        }
     }
     
     public CompletableFuture<Boolean> isAcquirable() {
-        return CompletableFuture.supplyAsync(() -> {
+        return supplyAsync(() -> {
             long currentTime = System.currentTimeMillis();
-            Document lock = locksCollection.find(new Document("_id", key)).first();
+            Document lock = mongoFactory.locksCollection.find(new Document("_id", key)).first();
             
             if (lock == null) return true;
             
             long expires = (long) lock.getOrDefault("expires", 0L);
             return expires < currentTime || (password != null && password.equals(lock.getString("password")));
-        }, executor);
+        });
     }
     
     
     public CompletableFuture<Boolean> acquire() {
-        acquireFuture = new CompletableFuture<>();
-        attemptLockAcquisition();
+        acquireFuture = newAcquireFuture();
+        if (fair) {
+            waiterEntry = new Document("uuid", uuid)
+            .append("owner", factory.getOwner())
+            .append("password", password)
+            .append("ttl", expiresAfterMS)
+            .append("deadline", timeoutMS > 0 ? System.currentTimeMillis() + timeoutMS : Long.MAX_VALUE);
+            
+            if (timeoutMS > 0) {
+                schedule(() -> {
+                    if (acquireFuture.complete(false)) {
+                        removeFairWaiter();
+                        releaseFair();
+                    }
+                }, timeoutMS);
+            }
+            attemptFairAcquisition();
+        }
+        else {
+            if (timeoutMS > 0) {
+                // [DEBUG] Scheduling lock timeout in " + timeoutMS + "ms
+                schedule(() -> {
+                    if (acquireFuture.complete(false)) {
+                        mongoFactory.retryingLocks.remove(key, this);
+                    }
+                }, timeoutMS);
+            }
+            attemptLockAcquisition();
+        }
         return acquireFuture;
     }
     
+    // The entry this lock adds to the lock document's queue while waiting
+    private Document waiterEntry;
+    
+    /**
+    * Takes the lock if it is free, otherwise joins the lock document's wait queue.
+    * Queued waiters are handed the lock directly by the releasing holder.
+    */
+    private void attemptFairAcquisition() {
+        if (acquireFuture.isDone()) return;
+        
+        addFairWaiter();
+        executor.execute(() -> {
+            try {
+                while (!acquireFuture.isDone()) {
+                    if (password != null) {
+                        Document filter = new Document("_id", key).append("password", password);
+                        Document update = new Document("$set", new Document("uuid", uuid).append("owner", factory.getOwner()).append("expires", System.currentTimeMillis() + expiresAfterMS));
+                        onRoundTrip();
+                        if (mongoFactory.locksCollection.updateOne(filter, update).getMatchedCount() == 1) {
+                            onGranted();
+                            return;
+                        }
+                    }
+                    
+                    final Document lockDoc = new Document("_id", key)
+                    .append("password", password)
+                    .append("uuid", uuid)
+                    .append("owner", factory.getOwner())
+                    .append("expires", System.currentTimeMillis() + expiresAfterMS)
+                    .append("queue", new ArrayList<Document>());
+                    try {
+                        onRoundTrip();
+                        mongoFactory.locksCollection.insertOne(lockDoc);
+                        onGranted();
+                        return;
+                    } catch (MongoWriteException e) {
+                        if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) throw e;
+                    }
+                    
+                    Document enqueue = new Document("$addToSet", new Document("queue", waiterEntry));
+                    onRoundTrip();
+                    if (mongoFactory.locksCollection.updateOne(new Document("_id", key), enqueue).getMatchedCount() == 1) {
+                        onContended();
+                        return;
+                    }
+                    // The lock was removed in the meantime, try again
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+    
+    /**
+    * Registers this lock as a queued fair waiter, by uuid for hand-overs and by key for removals.
+    */
+    private void addFairWaiter() {
+        mongoFactory.fairWaiters.put(uuid, this);
+        mongoFactory.fairQueues.add(key, this);
+    }
+    
+    /**
+    * @return {@code true} if this lock was registered as a queued fair waiter
+    */
+    private boolean removeFairWaiter() {
+        mongoFactory.fairQueues.remove(key, this);
+        return mongoFactory.fairWaiters.remove(uuid, this);
+    }
+    
+    /**
+    * Called once this lock has been handed ownership, either by its own write or by a
+    * releasing holder. If the caller has given up meanwhile, the lock is passed on to
+    * the next waiter.
+    */
+    private void onGranted() {
+        if (!removeFairWaiter()) return;
+        
+        if (acquireFuture.complete(true)) {
+            onAcquired();
+        }
+        else {
+            releaseFair();
+        }
+    }
+    
+    /**
+    * Leaves the wait queue and, if this lock is held, hands it over to the first
+    * waiter that has not given up yet, or removes the lock document when there is none.
+    *
+    * @return {@code true} if this lock was held and has been released
+    */
+    private boolean releaseFair() {
+        mongoFactory.locksCollection.updateOne(new Document("_id", key), new Document("$pull", new Document("queue", new Document("uuid", uuid))));
+        
+        while (true) {
+            Document lock = mongoFactory.locksCollection.find(new Document("_id", key).append("uuid", uuid)).first();
+            if (lock == null) return false;
+            
+            List<Document> queue = lock.getList("queue", Document.class, new ArrayList<>());
+            long currentTime = System.currentTimeMillis();
+            List<String> skipped = new ArrayList<>();
+            Document next = null;
+            for (Document waiter : queue) {
+                skipped.add(waiter.getString("uuid"));
+                if (waiter.getLong("deadline") >= currentTime) {
+                    next = waiter;
+                    break;
+                }
+            }
+            
+            Document filter = new Document("_id", key).append("uuid", uuid);
+            if (next == null) {
+                // Only delete if nobody joined the queue since it was read
+                if (queue.isEmpty()) {
+                    filter.append("queue.0", new Document("$exists", false));
+                }
+                else {
+                    filter.append("queue", queue);
+                }
+                if (mongoFactory.locksCollection.deleteOne(filter).getDeletedCount() == 1) return true;
+                continue;
+            }
+            
+            Document update = new Document("$set", new Document("uuid", next.getString("uuid"))
+            .append("owner", next.get("owner"))
+            .append("password", next.get("password"))
+            .append("expires", currentTime + next.getLong("ttl")))
+            .append("$pull", new Document("queue", new Document("uuid", new Document("$in", skipped))));
+            filter.append("queue.uuid", next.getString("uuid"));
+            if (mongoFactory.locksCollection.updateOne(filter, update).getModifiedCount() == 1) return true;
+        }
+    }
+    
     private Document findKey(final String key) {
-        return locksCollection.find(new Document("_id", key)).first();
+        return mongoFactory.locksCollection.find(new Document("_id", key)).first();
     }
     
     private void attemptLockAcquisition() {
@@ -89,50 +373,63 @@ public class MongoLock extends ALock {
             return;
         }
         
-        if (timeoutMS > 0) {
-            // [DEBUG] Scheduling lock timeout in " + timeoutMS + "ms
-            schedule(() -> acquireFuture.complete(false), timeoutMS);
+        if (guarded) {
+            executor.execute(() -> {
+                try {
+                    attemptGuardedAcquisition();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            return;
         }
         
         // [DEBUG] Checking if lock is acquirable...
+        onRoundTrip();
         this.isAcquirable().thenApplyAsync((bool) -> {
             // [DEBUG] isAcquirable result: 
             if (password != null && bool) {
                 Document filter = new Document("_id", key).append("password", password);
-                final Document update = new Document("$set", new Document("expires", System.currentTimeMillis() + expiresAfterMS).append("uuid", uuid).append("password", password).append("_id", key));
+                final Document update = new Document("$set", new Document("expires", System.currentTimeMillis() + expiresAfterMS).append("uuid", uuid).append("owner", factory.getOwner()).append("password", password).append("_id", key));
                 // [DEBUG] Updating lock document in MongoDB.
-                locksCollection.updateOne(filter, update, new UpdateOptions().upsert(true));
-                acquireFuture.complete(true);
-                scheduleExpirationRemoval();
+                onRoundTrip();
+                if (upsert(filter, update)) {
+                    acquireFuture.complete(true);
+                    onAcquired();
+                }
+                else {
+                    // The lock was taken under another password in the meantime
+                    onContended();
+                    mongoFactory.retryingLocks.add(key, this);
+                }
                 return true;
             }
             return false;
-        }, executor).thenAcceptAsync(passwordAcquired -> {
-            if (passwordAcquired) {
+        }, executor).thenAcceptAsync(passwordHandled -> {
+            if (passwordHandled) {
                 return;
             }
             
             final Document lockDoc = new Document("_id", key)
             .append("password", password)
             .append("uuid", uuid)
+            .append("owner", factory.getOwner())
             .append("expires", System.currentTimeMillis() + expiresAfterMS);
             
             try {
                 // [DEBUG] Attempting to create lock document.
-                locksCollection.insertOne(lockDoc);
-                // [DEBUG] Lock successfully acquired.
-                
-                scheduleExpirationRemoval();
-                acquireFuture.complete(true);
-                return;
-            } catch (Exception e) {
-                if (e instanceof MongoWriteException && ((MongoWriteException) e).getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
-                    // [ERROR] Lock acquisition failed, adding to retrying locks: 
-                    _retryingLocks.put(key, this);
-                }
-                else {
-                    e.printStackTrace();
+                onRoundTrip();
+                if (insert(lockDoc)) {
+                    // [DEBUG] Lock successfully acquired.
+                    onAcquired();
+                    acquireFuture.complete(true);
+                    return;
                 }
+                // [ERROR] Lock acquisition failed, adding to retrying locks: 
+                onContended();
+                mongoFactory.retryingLocks.add(key, this);
+            } catch (Exception e) {
+                e.printStackTrace();
             }
         }, executor);
         
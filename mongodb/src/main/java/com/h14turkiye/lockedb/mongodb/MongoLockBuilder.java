@@ -2,11 +2,23 @@ package com.h14turkiye.lockedb.mongodb;
 
 import com.h14turkiye.lockedb.ALock;
 import com.h14turkiye.lockedb.ALockBuilder;
+import com.h14turkiye.lockedb.APoolLock;
 
 /**
  * A builder class for creating MongoDB-based locks.
  */
 public class MongoLockBuilder extends ALockBuilder {
+    private final MongoLockFactory factory;
+
+    /**
+     * Constructs a MongoLockBuilder creating locks owned by the given factory.
+     *
+     * @param factory the factory the built locks belong to
+     */
+    public MongoLockBuilder(final MongoLockFactory factory) {
+        this.factory = factory;
+    }
+
     /**
      * Builds a new MongoLock instance with the specified key.
      *
@@ -14,10 +26,28 @@ public class MongoLockBuilder extends ALockBuilder {
      * @return a new instance of MongoLock
      */
     public ALock build(final String key) {
-        MongoLock lock = new MongoLock(key);
+        validate();
+        MongoLock lock = new MongoLock(key, factory);
         lock.setPassword(password);
         lock.setExpiresAfterMS(expiresAfterMS);
         lock.setTimeoutMS(timeoutMS);
+        lock.setFair(fair);
+        lock.setGuarded(guarded);
+        return lock;
+    }
+
+    /**
+     * Builds a new MongoPoolLock instance on the specified pool.
+     *
+     * @param pool the unique name of the pool
+     * @param slots the number of slots in the pool
+     * @return a new instance of MongoPoolLock
+     */
+    public APoolLock buildPool(final String pool, final int slots) {
+        validatePool();
+        MongoPoolLock lock = new MongoPoolLock(pool, slots, factory);
+        lock.setExpiresAfterMS(expiresAfterMS);
+        lock.setTimeoutMS(timeoutMS);
         return lock;
     }
-}
+}
\ No newline at end of file
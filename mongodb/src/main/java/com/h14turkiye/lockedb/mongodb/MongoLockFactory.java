@@ -1,21 +1,62 @@
 package com.h14turkiye.lockedb.mongodb;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.bson.BsonDocument;
 import org.bson.Document;
 
 import com.h14turkiye.lockedb.ALock;
 import com.h14turkiye.lockedb.ALockBuilder;
-import com.h14turkiye.lockedb.LockFactory;
+import com.h14turkiye.lockedb.ALeaderElection;
+import com.h14turkiye.lockedb.ALockFactory;
+import com.h14turkiye.lockedb.APoolLock;
+import com.h14turkiye.lockedb.LockEvent;
+import com.h14turkiye.lockedb.WaiterRegistry;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoChangeStreamCursor;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.DeleteManyModel;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
 
-public class MongoLockFactory implements LockFactory {
-    private MongoCollection<Document> locksCollection;
+public class MongoLockFactory extends ALockFactory {
+    private final MongoDatabase db;
+    
+    final MongoCollection<Document> locksCollection;
+    
+    // Group-commits inserts, upserts and deletes when set, otherwise they are written one by one
+    final MongoBatchWriter writer;
+    
+    // Locks waiting for their lock document to be removed or vacated
+    final WaiterRegistry<MongoLock> retryingLocks = new WaiterRegistry<>();
+    
+    // Fair locks waiting in a lock document's queue, keyed by their uuid
+    final ConcurrentMap<String, MongoLock> fairWaiters = new ConcurrentHashMap<>();
+    
+    // The same fair locks, keyed by the lock they queue for
+    final WaiterRegistry<MongoLock> fairQueues = new WaiterRegistry<>();
+    
+    // Pool locks waiting for a slot, keyed by their pool
+    final WaiterRegistry<MongoPoolLock> poolWaiters = new WaiterRegistry<>();
+    
+    // Candidates of leader elections, keyed by their leader key
+    final WaiterRegistry<MongoLeaderElection> elections = new WaiterRegistry<>();
+    
+    // The change stream notifying this factory of lock changes
+    private volatile MongoChangeStreamCursor<ChangeStreamDocument<Document>> changeStream;
+    private volatile boolean closed;
     
     /**
      * Constructs a MongoLockFactory with the specified MongoDatabase.
@@ -23,41 +64,282 @@ public class MongoLockFactory implements LockFactory {
      * @param database the MongoDatabase instance to store lock information
      */
     public MongoLockFactory(MongoDatabase db) {
-        locksCollection = db.listCollectionNames().into(new ArrayList<>()).contains("locks") ?
-        db.getCollection("locks") : createLocksCollection(db);
-
-        MongoLock._startWatch(locksCollection);
+        this(db, false, 0, 0, null, false);
+    }
+    
+    /**
+     * Constructs a MongoLockFactory with the specified MongoDatabase, running its locks on the given executor.
+     * The executor also runs the change stream watcher, which occupies one of its threads.
+     *
+     * @param database the MongoDatabase instance to store lock information
+     * @param executor the executor for asynchronous lock operations, not shut down by {@link #close()}
+     */
+    public MongoLockFactory(MongoDatabase db, ExecutorService executor) {
+        this(db, false, 0, 0, executor, false);
+    }
+    
+    /**
+     * Constructs a MongoLockFactory with the specified MongoDatabase, group-committing lock
+     * inserts, upserts and deletes into unordered bulk writes.
+     *
+     * @param database the MongoDatabase instance to store lock information
+     * @param maxBatchSize the maximum number of lock writes sent in one bulk write
+     * @param maxDelayMS how long a lock write waits for others to join its batch
+     */
+    public MongoLockFactory(MongoDatabase db, int maxBatchSize, long maxDelayMS) {
+        this(db, true, maxBatchSize, maxDelayMS, null, false);
+    }
+    
+    /**
+     * Constructs a MongoLockFactory with the specified MongoDatabase, group-committing lock
+     * inserts, upserts and deletes into unordered bulk writes, and running its locks on the given executor.
+     * The executor also runs the change stream watcher and the batch writer, which occupy two of its threads.
+     *
+     * @param database the MongoDatabase instance to store lock information
+     * @param maxBatchSize the maximum number of lock writes sent in one bulk write
+     * @param maxDelayMS how long a lock write waits for others to join its batch
+     * @param executor the executor for asynchronous lock operations, not shut down by {@link #close()}
+     */
+    public MongoLockFactory(MongoDatabase db, int maxBatchSize, long maxDelayMS, ExecutorService executor) {
+        this(db, true, maxBatchSize, maxDelayMS, executor, false);
+    }
+    
+    private MongoLockFactory(MongoDatabase db, boolean batched, int maxBatchSize, long maxDelayMS, ExecutorService executor, boolean async) {
+        super(executor);
+        this.db = db;
+        locksCollection = db.getCollection("locks");
+        writer = batched ? new MongoBatchWriter(locksCollection, maxBatchSize, maxDelayMS, this.executor) : null;
+        if (async) {
+            initializeAsync(this::initializeLocksCollection);
+        }
+        else {
+            initialize(this::initializeLocksCollection);
+        }
+    }
+    
+    /**
+     * Starts a MongoLockFactory with the specified MongoDatabase, connecting in the background.
+     *
+     * @param database the MongoDatabase instance to store lock information
+     * @return a factory that queues lock operations until it is connected
+     * @see #startAsync(MongoDatabase, int, long, ExecutorService)
+     */
+    public static MongoLockFactory startAsync(MongoDatabase db) {
+        return new MongoLockFactory(db, false, 0, 0, null, true);
+    }
+    
+    /**
+     * Starts a MongoLockFactory with the specified MongoDatabase, running its locks on the given executor
+     * and connecting in the background.
+     *
+     * @param database the MongoDatabase instance to store lock information
+     * @param executor the executor for asynchronous lock operations, not shut down by {@link #close()}
+     * @return a factory that queues lock operations until it is connected
+     * @see #startAsync(MongoDatabase, int, long, ExecutorService)
+     */
+    public static MongoLockFactory startAsync(MongoDatabase db, ExecutorService executor) {
+        return new MongoLockFactory(db, false, 0, 0, executor, true);
+    }
+    
+    /**
+     * Starts a MongoLockFactory with the specified MongoDatabase, group-committing lock writes
+     * and connecting in the background.
+     *
+     * @param database the MongoDatabase instance to store lock information
+     * @param maxBatchSize the maximum number of lock writes sent in one bulk write
+     * @param maxDelayMS how long a lock write waits for others to join its batch
+     * @return a factory that queues lock operations until it is connected
+     * @see #startAsync(MongoDatabase, int, long, ExecutorService)
+     */
+    public static MongoLockFactory startAsync(MongoDatabase db, int maxBatchSize, long maxDelayMS) {
+        return new MongoLockFactory(db, true, maxBatchSize, maxDelayMS, null, true);
+    }
+    
+    /**
+     * Starts a MongoLockFactory with the specified MongoDatabase, group-committing lock writes,
+     * running its locks on the given executor and connecting in the background.
+     * The locks collection is checked or created and the change stream opened without blocking
+     * the caller, retrying with a backoff while MongoDB is unavailable. Lock operations issued
+     * meanwhile are queued and run once connected, see {@link #whenReady()}.
+     *
+     * @param database the MongoDatabase instance to store lock information
+     * @param maxBatchSize the maximum number of lock writes sent in one bulk write
+     * @param maxDelayMS how long a lock write waits for others to join its batch
+     * @param executor the executor for asynchronous lock operations, not shut down by {@link #close()}
+     * @return a factory that queues lock operations until it is connected
+     */
+    public static MongoLockFactory startAsync(MongoDatabase db, int maxBatchSize, long maxDelayMS, ExecutorService executor) {
+        return new MongoLockFactory(db, true, maxBatchSize, maxDelayMS, executor, true);
+    }
+    
+    /**
+     * Creates the locks collection if it does not exist yet, ensures its indexes and starts watching it.
+     */
+    private void initializeLocksCollection() {
+        if (!db.listCollectionNames().into(new ArrayList<>()).contains("locks")) {
+            db.createCollection("locks", new CreateCollectionOptions());
+        }
+        createIndexes();
+        startWatch();
+    }
+    
+    /**
+     * Watches the locks collection and wakes up the locks of this factory waiting for a change.
+     */
+    private void startWatch() {
+        changeStream = locksCollection.watch().cursor();
+        executor.submit(() -> {
+            try {
+                while (!closed) {
+                    onLockEvent(changeStream.next());
+                }
+            } catch (Exception e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+    
+    private void onLockEvent(final ChangeStreamDocument<Document> event) {
+        if (event.getOperationType().equals(OperationType.DELETE)) {
+            final String documentKey = event.getDocumentKey().getString("_id").getValue();
+            eventPublisher.publish(LockEvent.Type.RELEASED, documentKey);
+            wakeRetryingLocks(documentKey);
+            // The lock was removed without a hand-off, queued waiters have to compete again
+            for (MongoLock waiter : fairQueues.get(documentKey)) {
+                waiter.onQueueReleased();
+            }
+            wakePoolWaiters(documentKey);
+            wakeCandidates(documentKey);
+        }
+        else if (event.getOperationType().equals(OperationType.UPDATE)) {
+            final BsonDocument updatedFields = event.getUpdateDescription().getUpdatedFields();
+            if (updatedFields.isNull("uuid")) {
+                // A guarded lock, pool slot or leadership was vacated, its document is kept
+                final String documentKey = event.getDocumentKey().getString("_id").getValue();
+                eventPublisher.publish(LockEvent.Type.RELEASED, documentKey);
+                wakeRetryingLocks(documentKey);
+                wakePoolWaiters(documentKey);
+                wakeCandidates(documentKey);
+            }
+            else if (updatedFields.isString("uuid")) {
+                eventPublisher.publish(LockEvent.Type.ACQUIRED, event.getDocumentKey().getString("_id").getValue());
+                if (!fairWaiters.isEmpty()) {
+                    final MongoLock lock = fairWaiters.get(updatedFields.getString("uuid").getValue());
+                    if (lock != null) {
+                        lock.onLockGranted();
+                    }
+                }
+            }
+        }
+        else if (event.getOperationType().equals(OperationType.INSERT)) {
+            // Pool slots are created free, every other lock document is inserted by its first holder
+            final Document lockDoc = event.getFullDocument();
+            if (lockDoc != null && lockDoc.get("uuid") != null) {
+                eventPublisher.publish(LockEvent.Type.ACQUIRED, event.getDocumentKey().getString("_id").getValue());
+            }
+        }
+    }
+    
+    private void wakeRetryingLocks(final String documentKey) {
+        for (MongoLock lock : retryingLocks.get(documentKey)) {
+            if (retryingLocks.remove(documentKey, lock)) {
+                lock.onLockReleased();
+            }
+        }
+    }
+    
+    /**
+     * Lets every waiter of a pool try to take a slot, if the given key is one of its slots.
+     */
+    private void wakePoolWaiters(final String documentKey) {
+        final String pool = APoolLock.poolOf(documentKey);
+        if (pool == null) return;
+        
+        for (MongoPoolLock waiter : poolWaiters.get(pool)) {
+            waiter.onSlotFreed();
+        }
+    }
+    
+    /**
+     * Lets the candidates of an election campaign, if the given key is its leader key.
+     */
+    private void wakeCandidates(final String documentKey) {
+        for (MongoLeaderElection candidate : elections.get(documentKey)) {
+            candidate.onLeadershipVacated();
+        }
     }
     
     // Builder pattern approach
     public ALockBuilder builder() {
-        return new MongoLockBuilder();
+        return new MongoLockBuilder(this);
     }
     
     // Direct creation approach
     public ALock createLock(String key) {
-        return new MongoLock(key);
+        return new MongoLock(key, this);
     }
 
-     /**
-     * Creates the "locks" collection in the MongoDB database if it does not exist.
-     * The collection is configured with an expiration index on the "expires" field.
-     *
-     * @return the MongoCollection instance for locks
-     */
-    private MongoCollection<Document> createLocksCollection(MongoDatabase db) {
-        db.createCollection("locks", new CreateCollectionOptions());
-        MongoCollection<Document> collection = db.getCollection("locks");
-        collection.createIndex(new Document("expires", 1), new IndexOptions().expireAfter(0L, TimeUnit.MILLISECONDS));
+    public APoolLock createPool(String pool, int slots) {
+        return builder().buildPool(pool, slots);
+    }
+
+    public ALeaderElection createElection(String name, long leaseMS) {
+        return new MongoLeaderElection(name, leaseMS, this);
+    }
 
-        return collection;
+    /**
+     * Creates the indexes of the "locks" collection: an expiration index on the "expires" field,
+     * an index on the "owner" field used by {@link #releaseAll()}, and an index on the
+     * "pool" and "released" fields used to pick the least recently used slot of a pool.
+     * Indexes that already exist are left as they are, so collections created by earlier
+     * versions or by an interrupted start get the indexes they are missing.
+     */
+    private void createIndexes() {
+        locksCollection.createIndex(new Document("expires", 1), new IndexOptions().expireAfter(0L, TimeUnit.MILLISECONDS));
+        locksCollection.createIndex(new Document("owner", 1));
+        locksCollection.createIndex(new Document("pool", 1).append("released", 1));
     }
 
     @Override
     public CompletableFuture<String> getPassword(String key) {
-        return CompletableFuture.supplyAsync(()-> {
+        return supplyWhenReady(()-> {
             Document lockDoc = locksCollection.find(new Document("_id", key)).first();
             return lockDoc != null ? lockDoc.getString("password") : null;
-        }, ALock.executor);
+        });
+    }
+
+    @Override
+    public String getBackend() {
+        return "mongodb";
+    }
+
+    @Override
+    public CompletableFuture<Integer> releaseAll() {
+        for (ALock lock : new ArrayList<>(heldLocks)) {
+            onReleasedInBulk(lock);
+        }
+        return supplyWhenReady(() -> {
+            // Guarded locks and pool slots are vacated rather than deleted to keep their document, in the same round trip
+            List<Document> kept = List.of(new Document("guarded", true), new Document("pool", new Document("$exists", true)));
+            List<WriteModel<Document>> writes = List.of(
+            new DeleteManyModel<>(new Document("owner", owner).append("$nor", kept)),
+            new UpdateManyModel<>(new Document("owner", owner).append("$or", kept), MongoLock.vacate()));
+            BulkWriteResult result = locksCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            return result.getDeletedCount() + result.getModifiedCount();
+        });
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (changeStream != null) {
+            changeStream.close();
+        }
+        if (writer != null) {
+            writer.close();
+        }
+        super.close();
     }
 }
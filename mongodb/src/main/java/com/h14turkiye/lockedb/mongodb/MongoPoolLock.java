@@ -0,0 +1,166 @@
+package com.h14turkiye.lockedb.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.bson.Document;
+
+import com.h14turkiye.lockedb.APoolLock;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
+
+public class MongoPoolLock extends APoolLock {
+
+    // The factory owning the collection and waiter registries this lock uses
+    private final MongoLockFactory mongoFactory;
+
+    public MongoPoolLock(final String pool, final int slots, final MongoLockFactory factory) {
+        super(factory, pool, slots);
+        this.mongoFactory = factory;
+    }
+
+    public CompletableFuture<Boolean> acquire() {
+        acquireFuture = newAcquireFuture();
+        if (timeoutMS > 0) {
+            schedule(() -> {
+                if (acquireFuture.complete(false)) {
+                    removeWaiter();
+                }
+            }, timeoutMS);
+        }
+        // Wait for freed slots before the first attempt, so a slot freed in between is not missed
+        mongoFactory.poolWaiters.add(key, this);
+        executor.execute(this::attemptPoolAcquisition);
+        return acquireFuture;
+    }
+
+    /**
+    * Takes the least recently released free slot of the pool in a single findOneAndUpdate,
+    * creating the pool's slot documents first if they do not exist yet.
+    */
+    private void attemptPoolAcquisition() {
+        if (acquireFuture.isDone()) return;
+
+        try {
+            Document slotDoc = takeSlot();
+            if (slotDoc == null && createSlots()) {
+                slotDoc = takeSlot();
+            }
+            if (slotDoc == null) {
+                onContended();
+                return;
+            }
+
+            final int taken = slotDoc.getInteger("slot");
+            if (onSlotTaken(taken)) {
+                removeWaiter();
+            }
+            else {
+                releaseSlot(taken);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Document takeSlot() {
+        final long currentTime = System.currentTimeMillis();
+        final List<Document> free = List.of(new Document("uuid", null), new Document("expires", new Document("$lt", currentTime)));
+        final Document filter = new Document("pool", key).append("slot", new Document("$lt", slots)).append("$or", free);
+        final Document update = new Document("$set", new Document("uuid", uuid)
+        .append("owner", factory.getOwner())
+        .append("expires", currentTime + expiresAfterMS));
+
+        onRoundTrip();
+        return mongoFactory.locksCollection.findOneAndUpdate(filter, update, new FindOneAndUpdateOptions()
+        .sort(new Document("released", 1))
+        .projection(new Document("slot", 1)));
+    }
+
+    /**
+    * Creates the slot documents of the pool that do not exist yet.
+    *
+    * @return {@code true} if any slot document was missing
+    */
+    private boolean createSlots() {
+        final Document filter = new Document("pool", key).append("slot", new Document("$lt", slots));
+        onRoundTrip();
+        if (mongoFactory.locksCollection.countDocuments(filter) >= slots) return false;
+
+        final List<Document> slotDocs = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            slotDocs.add(new Document("_id", slotKey(key, i))
+            .append("pool", key)
+            .append("slot", i)
+            .append("uuid", null)
+            .append("owner", null)
+            .append("expires", 0L)
+            .append("released", 0L));
+        }
+        try {
+            onRoundTrip();
+            mongoFactory.locksCollection.insertMany(slotDocs, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            // Slots created by other callers in the meantime are expected
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) throw e;
+            }
+        }
+        return true;
+    }
+
+    /**
+    * Called when a slot of the pool has been released while this lock is waiting.
+    */
+    void onSlotFreed() {
+        onNotified("DELETE");
+        executor.execute(this::attemptPoolAcquisition);
+    }
+
+    private void removeWaiter() {
+        mongoFactory.poolWaiters.remove(key, this);
+    }
+
+    public CompletableFuture<Boolean> release() {
+        removeWaiter();
+        final int held = onSlotReleased();
+        if (held < 0) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return supplyAsync(() -> releaseSlot(held));
+    }
+
+    /**
+    * Vacates a slot document, marking when it was released so slots are reused least recently used first.
+    */
+    private boolean releaseSlot(final int released) {
+        final Document filter = new Document("_id", slotKey(key, released)).append("uuid", uuid);
+        final Document update = MongoLock.vacate();
+        update.get("$set", Document.class).append("released", System.currentTimeMillis());
+        return mongoFactory.locksCollection.updateOne(filter, update).getModifiedCount() == 1;
+    }
+
+    /**
+    * Checks asynchronously whether every slot of the pool is held.
+    */
+    public CompletableFuture<Boolean> isLocked() {
+        return supplyAsync(() -> {
+            final Document held = new Document("pool", key)
+            .append("slot", new Document("$lt", slots))
+            .append("uuid", new Document("$ne", null))
+            .append("expires", new Document("$gte", System.currentTimeMillis()));
+            return mongoFactory.locksCollection.countDocuments(held) >= slots;
+        });
+    }
+
+    /**
+    * Checks asynchronously whether any slot of the pool is free.
+    */
+    public CompletableFuture<Boolean> isAcquirable() {
+        return isLocked().thenApply(locked -> !locked);
+    }
+}
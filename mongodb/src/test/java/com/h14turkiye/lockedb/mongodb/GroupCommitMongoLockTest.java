@@ -0,0 +1,76 @@
+package com.h14turkiye.lockedb.mongodb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import com.h14turkiye.lockedb.ALock;
+
+/**
+ * Runs the lock tests with lock writes group-committed into bulk writes.
+ */
+public class GroupCommitMongoLockTest extends MongoLockTest {
+    
+    @BeforeAll
+    static void setup() {
+        start(true);
+    }
+    
+    /**
+    * Concurrent acquisitions and releases are sent in fewer bulk writes than operations,
+    * and each caller gets the outcome of its own write
+    */
+    @Test
+    public void testGroupCommit() throws Exception {
+        final int lockCount = 32;
+        
+        try (MongoLockFactory batched = new MongoLockFactory(db, 64, 20L)) {
+            List<ALock> locks = new ArrayList<>();
+            List<CompletableFuture<Boolean>> acquiring = new ArrayList<>();
+            for (int i = 0; i < lockCount; i++) {
+                ALock lock = batched.builder().timeoutMS(5000L).build("batched-resource-" + i);
+                locks.add(lock);
+                acquiring.add(lock.acquire());
+            }
+            for (CompletableFuture<Boolean> future : acquiring) {
+                assertTrue(future.get(), "Every lock should be acquired");
+            }
+            
+            final long batches = batched.writer.getBatches();
+            final long writes = batched.writer.getBatchedWrites();
+            assertEquals(lockCount, writes, "Every insert should be sent in a bulk write");
+            assertTrue(batches < writes, "Concurrent inserts should share bulk writes, got " + batches + " bulk writes for " + writes + " inserts");
+            
+            List<CompletableFuture<Boolean>> releasing = new ArrayList<>();
+            for (ALock lock : locks) {
+                releasing.add(lock.release());
+            }
+            for (CompletableFuture<Boolean> future : releasing) {
+                assertTrue(future.get(), "Every release should report its own deletion");
+            }
+            final long deleteBatches = batched.writer.getBatches() - batches;
+            assertTrue(deleteBatches < lockCount, "Concurrent deletes should share bulk writes, got " + deleteBatches + " bulk writes for " + lockCount + " deletes");
+            
+            // Deletes batched together are resolved from their own write, not from a prior lookup
+            batched.locksCollection.insertOne(new Document("_id", "batched-resource-kept").append("uuid", "kept"));
+            batched.locksCollection.insertOne(new Document("_id", "batched-resource-other").append("uuid", "other"));
+            CompletableFuture<Boolean> missing = batched.writer.delete(new Document("_id", "batched-resource-0"));
+            CompletableFuture<Boolean> mismatched = batched.writer.delete(new Document("_id", "batched-resource-other").append("uuid", "kept"));
+            assertFalse(missing.get(), "Deleting a missing document should report nothing deleted");
+            assertFalse(mismatched.get(), "Deleting a document that does not match should report nothing deleted");
+            
+            // When only some deletes of a batch match, each one is resolved on its own
+            CompletableFuture<Boolean> existing = batched.writer.delete(new Document("_id", "batched-resource-kept").append("uuid", "kept"));
+            mismatched = batched.writer.delete(new Document("_id", "batched-resource-other").append("uuid", "kept"));
+            assertTrue(existing.get(), "Deleting an existing document should report it deleted");
+            assertFalse(mismatched.get(), "Deleting a document that does not match should report nothing deleted");
+        }
+    }
+}
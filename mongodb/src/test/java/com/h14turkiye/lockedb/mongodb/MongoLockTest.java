@@ -4,19 +4,39 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.testcontainers.containers.MongoDBContainer;
 import com.h14turkiye.lockedb.ALockTest;
+import com.h14turkiye.lockedb.LockFactory;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
 
+/**
+ * Runs the lock tests against a MongoDB container, with every write sent on its own.
+ */
 public class MongoLockTest extends ALockTest {
     
     static MongoDBContainer mongoContainer = new MongoDBContainer("mongo:7.0");
     
     private static MongoClient client;
-    private static MongoDatabase db;
+    protected static MongoDatabase db;
+    
+    // A client of a port nothing listens on, giving up on each attempt quickly
+    private static MongoClient unreachableClient;
+    
+    // Whether every factory of the test group-commits its writes
+    private static boolean groupCommit;
     
     @BeforeAll
     static void setup() {
+        start(false);
+    }
+    
+    /**
+    * Starts the MongoDB container and the factory shared by the tests.
+    *
+    * @param batched {@code true} to group-commit the writes of every factory of the test
+    */
+    protected static void start(final boolean batched) {
+        groupCommit = batched;
         try {
             mongoContainer.start();
             
@@ -26,8 +46,9 @@ public class MongoLockTest extends ALockTest {
             client = MongoClients.create(uri);
             
             db = client.getDatabase("testdb");
+            unreachableClient = MongoClients.create("mongodb://localhost:" + freePort() + "/?serverSelectionTimeoutMS=200");
             
-            factory = new MongoLockFactory(db);
+            factory = groupCommit ? new MongoLockFactory(db, 64, 2L) : new MongoLockFactory(db);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -36,7 +57,30 @@ public class MongoLockTest extends ALockTest {
     
     @AfterAll
     static void tearDown() {
+        if (factory != null) {
+            factory.close();
+        }
+        
         mongoContainer.stop();
         client.close();
+        if (unreachableClient != null) {
+            unreachableClient.close();
+        }
+    }
+    
+    @Override
+    protected LockFactory newFactory() {
+        return groupCommit ? new MongoLockFactory(db, 64, 2L) : new MongoLockFactory(db);
+    }
+
+    @Override
+    protected LockFactory startFactory() {
+        return groupCommit ? MongoLockFactory.startAsync(db, 64, 2L) : MongoLockFactory.startAsync(db);
+    }
+
+    @Override
+    protected LockFactory startUnreachableFactory() {
+        MongoDatabase unreachable = unreachableClient.getDatabase("testdb");
+        return groupCommit ? MongoLockFactory.startAsync(unreachable, 64, 2L) : MongoLockFactory.startAsync(unreachable);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package com.h14turkiye.lockedb.redis;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.h14turkiye.lockedb.ALeaderElection;
+import io.lettuce.core.ScriptOutputType;
+
+public class RedisLeaderElection extends ALeaderElection {
+    // The factory owning the connection, scripts and candidate registry this election uses
+    private final RedisLockFactory redisFactory;
+
+    private byte[] candidateValue;
+
+    public RedisLeaderElection(final String name, final long leaseMS, final RedisLockFactory factory) {
+        super(factory, name, leaseMS);
+        this.redisFactory = factory;
+    }
+
+    private byte[] candidateValue() {
+        if (candidateValue == null) {
+            candidateValue = redisFactory.codec.lockValue(candidate, null);
+        }
+        return candidateValue;
+    }
+
+    /**
+    * Called when the leadership has been given up while this candidate follows it.
+    */
+    void onLeadershipVacated() {
+        onVacated();
+    }
+
+    @Override
+    protected CompletableFuture<Ballot> tryAcquire() {
+        return redisFactory.<List<Object>>eval(
+        redisFactory.scripts.electAcquire,
+        ScriptOutputType.MULTI,
+        new String[]{key},
+        candidateValue(), RedisLock.arg(leaseMS)
+        ).thenApply(result -> {
+            if ((Long) result.get(0) == 1L) {
+                return new Ballot(true, (Long) result.get(1), 0);
+            }
+            return new Ballot(false, 0, (Long) result.get(1));
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> renew() {
+        return redisFactory.eval(
+        redisFactory.scripts.electRenew,
+        ScriptOutputType.INTEGER,
+        new String[]{key},
+        candidateValue(), RedisLock.arg(leaseMS)
+        ).thenApply(result -> result != null && (Long) result == 1L);
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> vacate() {
+        return redisFactory.eval(
+        redisFactory.scripts.release,
+        ScriptOutputType.INTEGER,
+        new String[]{key, RedisLockFactory.LOCK_CHANNEL},
+        candidateValue()
+        ).thenApply(result -> result != null && (Long) result == 1L)
+        .exceptionally(ex -> {
+            ex.printStackTrace();
+            return false;
+        });
+    }
+
+    @Override
+    protected void follow(final boolean follow) {
+        if (follow) {
+            redisFactory.elections.add(key, this);
+        }
+        else {
+            redisFactory.elections.remove(key, this);
+        }
+    }
+}
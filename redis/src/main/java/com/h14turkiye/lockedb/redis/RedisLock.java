@@ -1,71 +1,133 @@
 package com.h14turkiye.lockedb.redis;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import com.h14turkiye.lockedb.ALock;
-import io.lettuce.core.RedisClient;
 import io.lettuce.core.SetArgs;
-import io.lettuce.core.api.async.RedisAsyncCommands;
-import io.lettuce.core.pubsub.RedisPubSubAdapter;
-import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
 import io.lettuce.core.ScriptOutputType;
 
 public class RedisLock extends ALock {
     // TTL buffer to ensure our release() runs before Redis auto-expires the key
     private static final long TTL_BUFFER_MS = 5;
     
-    // Use a ConcurrentHashMap for thread-safe operations and faster lookups
-    public static ConcurrentMap<String, RedisLock> _retryingLocks = new ConcurrentHashMap<>();
-    
-    // Redis channel for lock events
-    private static final String LOCK_CHANNEL = "lock_events";
-    
-    public static void _startWatch(final RedisClient redisClient) {
-        StatefulRedisPubSubConnection<String, String> pubSubConnection = redisClient.connectPubSub();
-        RedisLock.redisCommands = redisClient.connect().async();
-        pubSubConnection.addListener(new RedisPubSubAdapter<String, String>() {
-            @Override
-            public void message(String channel, String message) {
-                if (LOCK_CHANNEL.equals(channel) && message.startsWith("DELETE:")) {
-                    String key = message.substring(7); // Remove "DELETE:" prefix
-                    final RedisLock lock = _retryingLocks.get(key);
-                    if (lock != null) {
-                        lock.attemptLockAcquisition();
-                        _retryingLocks.remove(key);
-                    }
-                }
-            }
-        });
-        pubSubConnection.async().subscribe(LOCK_CHANNEL);
+    // The factory owning the connection, scripts and waiter registries this lock uses
+    private final RedisLockFactory redisFactory;
+    
+    public RedisLock(final String key, final RedisLockFactory factory) {
+        super(factory);
+        this.redisFactory = factory;
+        this.key = key;
     }
     
-    private static RedisAsyncCommands<String, String> redisCommands;
+    /**
+    * Called when the lock key has been released while this lock waits to retry.
+    */
+    void onLockReleased() {
+        onNotified("DELETE");
+        attemptLockAcquisition();
+    }
     
-    public RedisLock(final String key) {
-        this.key = key;
+    /**
+    * Called when the lock key has been removed without a hand-off while this fair lock is queued.
+    */
+    void onQueueReleased() {
+        onNotified("DELETE");
+        executor.execute(this::attemptFairAcquisition);
+    }
+    
+    /**
+    * Called when the lock has been handed over to this fair lock.
+    */
+    void onLockGranted() {
+        onNotified("GRANT");
+        executor.execute(this::onGranted);
+    }
+    
+    @Override
+    protected void onAcquired() {
+        super.onAcquired();
+        redisFactory.announceAcquired(key);
+    }
+    
+    // Encoded owner id and lock value, cached for the password they were encoded with
+    private byte[] ownerId;
+    private byte[] lockValue;
+    private byte[] passwordSuffix;
+    private String encodedPassword;
+    
+    private void encodeValues() {
+        if (ownerId == null || !Objects.equals(encodedPassword, password)) {
+            encodedPassword = password;
+            ownerId = redisFactory.codec.ownerId(uuid);
+            lockValue = redisFactory.codec.lockValue(uuid, password);
+            passwordSuffix = redisFactory.codec.passwordSuffix(password);
+        }
+    }
+    
+    /**
+    * @return the value stored under the lock key while this lock holds it
+    */
+    byte[] lockValue() {
+        encodeValues();
+        return lockValue;
+    }
+    
+    private byte[] ownerId() {
+        encodeValues();
+        return ownerId;
+    }
+    
+    private byte[] passwordSuffix() {
+        encodeValues();
+        return passwordSuffix;
+    }
+    
+    static byte[] arg(final long number) {
+        return Long.toString(number).getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    public CompletableFuture<Boolean> release(final String newValue) {
+        if (!guarded) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Only guarded locks carry a value"));
+        }
+        acquireFuture.complete(null);
+        onReleased();
+        final long expectedVersion = version;
+        return redisFactory.eval(
+        redisFactory.scripts.guardedRelease,
+        ScriptOutputType.INTEGER,
+        new String[]{key, RedisLockFactory.LOCK_CHANNEL},
+        lockValue(), newValue != null ? newValue.getBytes(StandardCharsets.UTF_8) : new byte[0], arg(expectedVersion), arg(newValue != null ? 1 : 0)
+        ).thenApply(result -> {
+            if (result != null && (Long) result == 1L) {
+                value = newValue;
+                version = expectedVersion + 1;
+                return true;
+            }
+            return false;
+        })
+        .exceptionally(ex -> {
+            ex.printStackTrace();
+            return false;
+        });
     }
     
     public CompletableFuture<Boolean> release() {
         acquireFuture.complete(null);
-        String lockValue = uuid + (password != null ? ":" + password : "");
-        String script =
-        "if redis.call('get', KEYS[1]) == ARGV[1] then " +
-        "  redis.call('del', KEYS[1]) " +
-        "  redis.call('publish', KEYS[2], 'DELETE:' .. KEYS[1]) " +
-        "  return 1 " +
-        "else " +
-        "  return 0 " +
-        "end";
-        
-        return redisCommands.eval(
-        script,
+        onReleased();
+        if (fair) {
+            removeFairWaiter();
+            return releaseFair();
+        }
+        return redisFactory.eval(
+        redisFactory.scripts.release,
         ScriptOutputType.INTEGER,
-        new String[]{key, LOCK_CHANNEL},
-        lockValue
-        ).toCompletableFuture()
-        .thenApply(result -> result != null && (Long) result == 1L)
+        new String[]{key, RedisLockFactory.LOCK_CHANNEL},
+        lockValue()
+        ).thenApply(result -> result != null && (Long) result == 1L)
         .exceptionally(ex -> {
             ex.printStackTrace();
             return false;
@@ -73,52 +135,156 @@ public class RedisLock extends ALock {
     }
     
     public CompletableFuture<Boolean> isLocked() {
-        return redisCommands.get(key).toCompletableFuture().thenApplyAsync(value -> value != null, executor);
+        return redisFactory.call(c -> c.get(key)).thenApplyAsync(value -> value != null, executor);
     }
     
     public CompletableFuture<Boolean> isAcquirable() {
-        return redisCommands.get(key).toCompletableFuture().thenComposeAsync((value) -> {
+        return isAcquirable(() -> {});
+    }
+    
+    /**
+    * @param onCall called before each call made to Redis, so that an acquisition can count them
+    */
+    private CompletableFuture<Boolean> isAcquirable(final Runnable onCall) {
+        onCall.run();
+        return redisFactory.call(c -> c.get(key)).thenComposeAsync((value) -> {
             
             if (value == null) {
                 return CompletableFuture.completedFuture(true); // Lock doesn't exist
             }
             
             // Check if it's our lock with our password
-            if (password != null && value.endsWith(":" + password)) {
+            if (password != null && redisFactory.codec.hasPasswordSuffix(value, passwordSuffix())) {
                 return CompletableFuture.completedFuture(true);
             }
             
             // Check TTL to see if it's expired
-            return redisCommands.ttl(key).toCompletableFuture().thenApply(ttl -> ttl <= 0); // Expired or no TTL set
+            onCall.run();
+            return redisFactory.call(c -> c.ttl(key)).thenApply(ttl -> ttl <= 0); // Expired or no TTL set
         }, executor);
     }
     
     public CompletableFuture<Boolean> acquire() {
-        acquireFuture = new CompletableFuture<>();
-        attemptLockAcquisition();
+        acquireFuture = newAcquireFuture();
+        if (fair) {
+            if (timeoutMS > 0) {
+                schedule(() -> {
+                    if (acquireFuture.complete(false)) {
+                        removeFairWaiter();
+                        releaseFair();
+                    }
+                }, timeoutMS);
+            }
+            attemptFairAcquisition();
+        }
+        else {
+            // Set up the timeout if needed
+            if (timeoutMS > 0) {
+                schedule(() -> {
+                    if (acquireFuture.complete(false)) {
+                        redisFactory.retryingLocks.remove(key, this);
+                    }
+                }, timeoutMS);
+            }
+            attemptLockAcquisition();
+        }
         return acquireFuture;
     }
     
+    /**
+    * Takes the lock if it is free, otherwise joins the key's wait queue.
+    * Queued waiters are handed the lock directly by the releasing holder.
+    */
+    private void attemptFairAcquisition() {
+        if (acquireFuture.isDone()) return;
+        
+        addFairWaiter();
+        long redisTTL = expiresAfterMS + TTL_BUFFER_MS;
+        onRoundTrip();
+        redisFactory.eval(
+        redisFactory.scripts.fairAcquire,
+        ScriptOutputType.INTEGER,
+        new String[]{key, RedisLockFactory.LOCK_CHANNEL},
+        ownerId(), lockValue(), arg(redisTTL), passwordSuffix(), arg(timeoutMS)
+        ).thenAcceptAsync(result -> {
+            if ((Long) result == 1L) {
+                onGranted();
+            }
+            else {
+                onContended();
+            }
+        }, executor).exceptionally(ex -> {
+            ex.printStackTrace();
+            return null;
+        });
+    }
+    
+    /**
+    * Registers this lock as a queued fair waiter, by uuid for hand-overs and by key for removals.
+    */
+    private void addFairWaiter() {
+        redisFactory.fairWaiters.put(uuid, this);
+        redisFactory.fairQueues.add(key, this);
+    }
+    
+    /**
+    * @return {@code true} if this lock was registered as a queued fair waiter
+    */
+    private boolean removeFairWaiter() {
+        redisFactory.fairQueues.remove(key, this);
+        return redisFactory.fairWaiters.remove(uuid, this);
+    }
+    
+    /**
+    * Called once this lock has been handed ownership, either directly by the acquire
+    * script or by a releasing holder. If the caller has given up meanwhile, the lock
+    * is passed on to the next waiter.
+    */
+    private void onGranted() {
+        if (!removeFairWaiter()) return;
+        
+        if (acquireFuture.complete(true)) {
+            onAcquired();
+        }
+        else {
+            releaseFair();
+        }
+    }
+    
+    private CompletableFuture<Boolean> releaseFair() {
+        return redisFactory.eval(
+        redisFactory.scripts.fairRelease,
+        ScriptOutputType.INTEGER,
+        new String[]{key, RedisLockFactory.LOCK_CHANNEL},
+        lockValue(), ownerId()
+        ).thenApply(result -> result != null && (Long) result == 1L)
+        .exceptionally(ex -> {
+            ex.printStackTrace();
+            return false;
+        });
+    }
+    
     private void attemptLockAcquisition() {
         if (acquireFuture.isDone()) return;
         
-        // Set up the timeout if needed
-        if (timeoutMS > 0) {
-            schedule(() -> acquireFuture.complete(false), timeoutMS);
+        if (guarded) {
+            attemptGuardedAcquisition();
+            return;
         }
         
-        String lockValue = uuid + (password != null ? ":" + password : "");
+        byte[] lockValue = lockValue();
         
         // Password-protected lock attempt
-        this.isAcquirable().thenComposeAsync((bool) -> {
+        this.isAcquirable(this::onRoundTrip).thenComposeAsync((bool) -> {
             if (password != null && bool) {
                 long redisTTL = expiresAfterMS + TTL_BUFFER_MS;
                 SetArgs setArgs = SetArgs.Builder.px(redisTTL);
                 
-                return redisCommands.set(key, lockValue, setArgs).thenApply(result -> {
+                onRoundTrip();
+                return redisFactory.call(c -> c.set(key, lockValue, setArgs)).thenApply(result -> {
                     if ("OK".equals(result)) {
                         acquireFuture.complete(true);
-                        scheduleExpirationRemoval();
+                        onAcquired();
                         return true;
                     }
                     return false;
@@ -134,16 +300,45 @@ public class RedisLock extends ALock {
             long redisTTL = expiresAfterMS + TTL_BUFFER_MS;
             
             SetArgs setArgs = SetArgs.Builder.nx().px(redisTTL);
-            redisCommands.set(key, lockValue, setArgs).thenAcceptAsync((result) -> {
+            onRoundTrip();
+            redisFactory.call(c -> c.set(key, lockValue, setArgs)).thenAcceptAsync((result) -> {
                 if ("OK".equals(result)) {
-                    scheduleExpirationRemoval();
+                    onAcquired();
                     acquireFuture.complete(true);
                 } else {
-                    _retryingLocks.put(key, this);
+                    onContended();
+                    redisFactory.retryingLocks.add(key, this);
                     // Don't complete the future yet, it will be completed on retry or timeout
                 }
             });
             
         }, executor);
     }
-}
\ No newline at end of file
+    
+    /**
+    * Takes the lock and reads its guarded value in a single script call.
+    */
+    private void attemptGuardedAcquisition() {
+        long redisTTL = expiresAfterMS + TTL_BUFFER_MS;
+        onRoundTrip();
+        redisFactory.<List<Object>>eval(
+        redisFactory.scripts.guardedAcquire,
+        ScriptOutputType.MULTI,
+        new String[]{key},
+        lockValue(), arg(redisTTL), passwordSuffix()
+        ).thenAcceptAsync(result -> {
+            if ((Long) result.get(0) == 1L) {
+                version = Long.parseLong(new String((byte[]) result.get(1), StandardCharsets.US_ASCII));
+                value = result.size() > 2 && result.get(2) != null ? new String((byte[]) result.get(2), StandardCharsets.UTF_8) : null;
+                onAcquired();
+                acquireFuture.complete(true);
+            } else {
+                onContended();
+                redisFactory.retryingLocks.add(key, this);
+            }
+        }, executor).exceptionally(ex -> {
+            ex.printStackTrace();
+            return null;
+        });
+    }
+}
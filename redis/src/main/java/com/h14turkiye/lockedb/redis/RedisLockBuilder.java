@@ -2,11 +2,23 @@ package com.h14turkiye.lockedb.redis;
 
 import com.h14turkiye.lockedb.ALock;
 import com.h14turkiye.lockedb.ALockBuilder;
+import com.h14turkiye.lockedb.APoolLock;
 
 /**
  * A builder class for creating Redis-based locks.
  */
 public class RedisLockBuilder extends ALockBuilder {
+    private final RedisLockFactory factory;
+
+    /**
+     * Constructs a RedisLockBuilder creating locks owned by the given factory.
+     *
+     * @param factory the factory the built locks belong to
+     */
+    public RedisLockBuilder(final RedisLockFactory factory) {
+        this.factory = factory;
+    }
+
     /**
      * Builds a new RedisLock instance with the specified key.
      *
@@ -14,10 +26,28 @@ public class RedisLockBuilder extends ALockBuilder {
      * @return a new instance of RedisLock
      */
     public ALock build(final String key) {
-        RedisLock lock = new RedisLock(key);
+        validate();
+        RedisLock lock = new RedisLock(key, factory);
         lock.setPassword(password);
         lock.setExpiresAfterMS(expiresAfterMS);
         lock.setTimeoutMS(timeoutMS);
+        lock.setFair(fair);
+        lock.setGuarded(guarded);
+        return lock;
+    }
+
+    /**
+     * Builds a new RedisPoolLock instance on the specified pool.
+     *
+     * @param pool the unique name of the pool
+     * @param slots the number of slots in the pool
+     * @return a new instance of RedisPoolLock
+     */
+    public APoolLock buildPool(final String pool, final int slots) {
+        validatePool();
+        RedisPoolLock lock = new RedisPoolLock(pool, slots, factory);
+        lock.setExpiresAfterMS(expiresAfterMS);
+        lock.setTimeoutMS(timeoutMS);
         return lock;
     }
 }
\ No newline at end of file
@@ -0,0 +1,320 @@
+package com.h14turkiye.lockedb.redis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import io.lettuce.core.codec.RedisCodec;
+
+/**
+ * Codec for lock keys and values stored in Redis.
+ *
+ * Keys are strings, optionally stored under a common prefix whose encoding is computed once.
+ * Values are raw bytes. In plain mode, lock values and notifications keep the textual
+ * {@code uuid:password} and {@code DELETE:key} format. In compact mode, a lock value is the
+ * owner's 16 raw UUID bytes followed by an 8 byte password hash, and notifications are a
+ * single type byte followed by the key without its prefix.
+ */
+public class RedisLockCodec implements RedisCodec<String, byte[]> {
+    // Notification type bytes used in compact mode
+    private static final byte DELETE_TYPE = 1;
+    private static final byte GRANT_TYPE = 2;
+    private static final byte ACQUIRE_TYPE = 3;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // The expiring keys the scripts keep next to a fair lock, named "{<lock key>}<suffix>"
+    private static final String QUEUE_SUFFIX = ":queue";
+    private static final String WAITER_SUFFIX = ":waiter:";
+
+    private final String keyPrefix;
+    private final byte[] keyPrefixBytes;
+    private final boolean compact;
+
+    /**
+     * Constructs a plain codec without key prefix, compatible with the textual lock format.
+     */
+    public RedisLockCodec() {
+        this("", false);
+    }
+
+    /**
+     * Constructs a RedisLockCodec.
+     *
+     * @param keyPrefix the prefix prepended to every lock key and channel, may be empty
+     * @param compact {@code true} to store lock values and notifications in binary form
+     */
+    public RedisLockCodec(final String keyPrefix, final boolean compact) {
+        this.keyPrefix = keyPrefix;
+        this.keyPrefixBytes = keyPrefix.getBytes(StandardCharsets.UTF_8);
+        this.compact = compact;
+    }
+
+    /**
+     * @return {@code true} if lock values and notifications are stored in binary form
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    @Override
+    public String decodeKey(final ByteBuffer bytes) {
+        if (bytes.remaining() >= keyPrefixBytes.length && startsWithPrefix(bytes)) {
+            bytes.position(bytes.position() + keyPrefixBytes.length);
+        }
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    @Override
+    public byte[] decodeValue(final ByteBuffer bytes) {
+        byte[] value = new byte[bytes.remaining()];
+        bytes.get(value);
+        return value;
+    }
+
+    @Override
+    public ByteBuffer encodeKey(final String key) {
+        int length = key.length();
+        byte[] encoded = new byte[keyPrefixBytes.length + length];
+        System.arraycopy(keyPrefixBytes, 0, encoded, 0, keyPrefixBytes.length);
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c >= 0x80) {
+                // Not plain ASCII, fall back to a full UTF-8 encoding
+                byte[] utf8 = key.getBytes(StandardCharsets.UTF_8);
+                encoded = Arrays.copyOf(keyPrefixBytes, keyPrefixBytes.length + utf8.length);
+                System.arraycopy(utf8, 0, encoded, keyPrefixBytes.length, utf8.length);
+                break;
+            }
+            encoded[keyPrefixBytes.length + i] = (byte) c;
+        }
+        return ByteBuffer.wrap(encoded);
+    }
+
+    @Override
+    public ByteBuffer encodeValue(final byte[] value) {
+        return ByteBuffer.wrap(value);
+    }
+
+    /**
+     * Encodes the identifier of a lock owner.
+     *
+     * @param uuid the owner's UUID
+     * @return the 16 raw UUID bytes in compact mode, the UUID string otherwise
+     */
+    public byte[] ownerId(final String uuid) {
+        if (!compact) {
+            return uuid.getBytes(StandardCharsets.US_ASCII);
+        }
+        UUID parsed = UUID.fromString(uuid);
+        return ByteBuffer.allocate(16).putLong(parsed.getMostSignificantBits()).putLong(parsed.getLeastSignificantBits()).array();
+    }
+
+    /**
+     * Encodes the value stored under a lock key while the lock is held.
+     *
+     * @param uuid the owner's UUID
+     * @param password the lock's password, or {@code null}
+     * @return the owner id followed by the password suffix
+     */
+    public byte[] lockValue(final String uuid, final String password) {
+        byte[] ownerId = ownerId(uuid);
+        byte[] suffix = passwordSuffix(password);
+        byte[] value = Arrays.copyOf(ownerId, ownerId.length + suffix.length);
+        System.arraycopy(suffix, 0, value, ownerId.length, suffix.length);
+        return value;
+    }
+
+    /**
+     * Encodes the suffix a lock value ends with when it is protected by the given password.
+     *
+     * @param password the lock's password, or {@code null}
+     * @return an 8 byte password hash in compact mode, {@code ":" + password} otherwise,
+     *         or an empty array without password
+     */
+    public byte[] passwordSuffix(final String password) {
+        if (password == null) {
+            return EMPTY;
+        }
+        if (!compact) {
+            return (":" + password).getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+            return Arrays.copyOf(digest, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Checks whether a stored lock value is protected by the given password suffix.
+     *
+     * @param value the stored lock value
+     * @param suffix the password suffix, see {@link #passwordSuffix(String)}
+     * @return {@code true} if the value ends with the suffix
+     */
+    public boolean hasPasswordSuffix(final byte[] value, final byte[] suffix) {
+        if (suffix.length == 0 || value.length < suffix.length) {
+            return false;
+        }
+        return Arrays.equals(value, value.length - suffix.length, value.length, suffix, 0, suffix.length);
+    }
+
+    /**
+     * Decodes a stored lock value for display.
+     *
+     * @param value the stored lock value
+     * @return the textual lock value in plain mode, {@code null} in compact mode
+     */
+    public String decodeLockValue(final byte[] value) {
+        return compact || value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds the Lua expression of the notification published when a lock is removed.
+     *
+     * @param keyExpression the Lua expression of the removed key, including its prefix
+     * @return a Lua string expression
+     */
+    String deleteMessageExpression(final String keyExpression) {
+        return (compact ? "'\\" + DELETE_TYPE + "'" : "'DELETE:'") + " .. " + unprefixedExpression(keyExpression);
+    }
+
+    /**
+     * Builds the Lua expression of the notification published when a lock is handed over.
+     *
+     * @param ownerIdExpression the Lua expression of the new owner's id
+     * @return a Lua string expression
+     */
+    String grantMessageExpression(final String ownerIdExpression) {
+        return (compact ? "'\\" + GRANT_TYPE + "'" : "'GRANT:'") + " .. " + ownerIdExpression;
+    }
+
+    /**
+     * @param message a notification published on the lock channel
+     * @return the removed key if the message is a removal notification, otherwise {@code null}
+     */
+    String deletedKey(final byte[] message) {
+        if (compact) {
+            return message.length > 0 && message[0] == DELETE_TYPE ? new String(message, 1, message.length - 1, StandardCharsets.UTF_8) : null;
+        }
+        String text = new String(message, StandardCharsets.UTF_8);
+        return text.startsWith("DELETE:") ? text.substring(7) : null;
+    }
+
+    /**
+     * Encodes the notification published when a lock is acquired.
+     *
+     * @param key the acquired key, without its prefix
+     * @return the notification
+     */
+    byte[] acquireMessage(final String key) {
+        if (!compact) {
+            return ("ACQUIRE:" + key).getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] utf8 = key.getBytes(StandardCharsets.UTF_8);
+        byte[] message = new byte[utf8.length + 1];
+        message[0] = ACQUIRE_TYPE;
+        System.arraycopy(utf8, 0, message, 1, utf8.length);
+        return message;
+    }
+
+    /**
+     * @param message a notification published on the lock channel
+     * @return the acquired key if the message is an acquisition notification, otherwise {@code null}
+     */
+    String acquiredKey(final byte[] message) {
+        if (compact) {
+            return message.length > 0 && message[0] == ACQUIRE_TYPE ? new String(message, 1, message.length - 1, StandardCharsets.UTF_8) : null;
+        }
+        String text = new String(message, StandardCharsets.UTF_8);
+        return text.startsWith("ACQUIRE:") ? text.substring(8) : null;
+    }
+
+    /**
+     * Builds the Lua expression of the key holding the wait queue of a fair lock.
+     * Like every expiring key kept next to a lock, it wraps the lock key in a hash tag,
+     * which keeps it in the lock's cluster slot and apart from the keys of locks.
+     *
+     * @param keyExpression the Lua expression of the lock key, including its prefix
+     * @return a Lua string expression
+     */
+    String queueKeyExpression(final String keyExpression) {
+        return "'{' .. " + keyExpression + " .. '}" + QUEUE_SUFFIX + "'";
+    }
+
+    /**
+     * Builds the Lua expression of the key holding a waiter of a fair lock.
+     *
+     * @param keyExpression the Lua expression of the lock key, including its prefix
+     * @param ownerIdExpression the Lua expression of the waiter's owner id
+     * @return a Lua string expression
+     */
+    String waiterKeyExpression(final String keyExpression, final String ownerIdExpression) {
+        return "'{' .. " + keyExpression + " .. '}" + WAITER_SUFFIX + "' .. " + ownerIdExpression;
+    }
+
+    /**
+     * @param key a lock key, without its prefix
+     * @return the key holding the lock's wait queue, as stored in Redis
+     */
+    String queueKey(final String key) {
+        return "{" + keyPrefix + key + "}" + QUEUE_SUFFIX;
+    }
+
+    /**
+     * @param redisKey a key as stored in Redis, such as one reported by a keyspace notification
+     * @return the key without its prefix, or {@code null} if it does not start with the prefix
+     *         or is one of the keys the scripts keep next to a lock rather than a lock itself
+     */
+    String unprefixedKey(final String redisKey) {
+        if (!redisKey.startsWith(keyPrefix) || isAuxiliaryKey(redisKey)) return null;
+        return redisKey.substring(keyPrefix.length());
+    }
+
+    /**
+     * Only the wait queue and waiter keys expire, the guarded state and leadership term
+     * kept next to a lock never do and so are never reported.
+     *
+     * @return {@code true} for a key laid out as the wait queue or a waiter of a lock
+     */
+    private boolean isAuxiliaryKey(final String redisKey) {
+        final String tagStart = "{" + keyPrefix;
+        if (!redisKey.startsWith(tagStart)) return false;
+        if (redisKey.length() > tagStart.length() + QUEUE_SUFFIX.length() + 1 && redisKey.endsWith("}" + QUEUE_SUFFIX)) return true;
+
+        final int waiter = redisKey.indexOf("}" + WAITER_SUFFIX, tagStart.length() + 1);
+        return waiter >= 0 && redisKey.length() > waiter + WAITER_SUFFIX.length() + 1;
+    }
+
+    /**
+     * @param message a notification published on the lock channel
+     * @return the UUID of the new owner if the message is a hand-over notification, otherwise {@code null}
+     */
+    String grantedUuid(final byte[] message) {
+        if (compact) {
+            if (message.length != 17 || message[0] != GRANT_TYPE) return null;
+            ByteBuffer buffer = ByteBuffer.wrap(message, 1, 16);
+            return new UUID(buffer.getLong(), buffer.getLong()).toString();
+        }
+        String text = new String(message, StandardCharsets.US_ASCII);
+        return text.startsWith("GRANT:") ? text.substring(6) : null;
+    }
+
+    private String unprefixedExpression(final String keyExpression) {
+        return keyPrefixBytes.length == 0 ? keyExpression : "string.sub(" + keyExpression + ", " + (keyPrefixBytes.length + 1) + ")";
+    }
+
+    private boolean startsWithPrefix(final ByteBuffer bytes) {
+        int position = bytes.position();
+        for (int i = 0; i < keyPrefixBytes.length; i++) {
+            if (bytes.get(position + i) != keyPrefixBytes[i]) return false;
+        }
+        return true;
+    }
+
+}
@@ -1,67 +1,424 @@
 package com.h14turkiye.lockedb.redis;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 
 import com.h14turkiye.lockedb.ALock;
 import com.h14turkiye.lockedb.ALockBuilder;
-import com.h14turkiye.lockedb.LockFactory;
+import com.h14turkiye.lockedb.ALeaderElection;
+import com.h14turkiye.lockedb.ALockFactory;
+import com.h14turkiye.lockedb.APoolLock;
+import com.h14turkiye.lockedb.LockEvent;
+import com.h14turkiye.lockedb.WaiterRegistry;
 
 import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
 import io.lettuce.core.api.async.RedisAsyncCommands;
-import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
 
-public class RedisLockFactory implements LockFactory {
+public class RedisLockFactory extends ALockFactory {
+    // Redis channel for lock events
+    static final String LOCK_CHANNEL = "lock_events";
+    
+    // Keyspace notification channels of expired keys, in every database
+    private static final String EXPIRED_PATTERN = "__keyevent@*__:expired";
+    
     private final RedisClient redisClient;
     
+    // Encoding of keys, values and notifications, and the scripts rendered for it
+    final RedisLockCodec codec;
+    final RedisLockScripts scripts;
+    
+    // Connections of this factory, for commands and for lock notifications, opened once it is initialized
+    private volatile StatefulRedisConnection<String, byte[]> connection;
+    private volatile StatefulRedisPubSubConnection<String, byte[]> pubSubConnection;
+    private RedisAsyncCommands<String, byte[]> commands;
+    
+    // Subscription to keyspace expiry notifications, opened when expiry events are enabled
+    private volatile StatefulRedisPubSubConnection<String, String> expiryConnection;
+    
+    // Whether acquisitions are announced on the lock channel for lock events
+    private volatile boolean acquireEvents;
+    
+    // Digests of the scripts loaded into the server's script cache
+    private final Map<String, String> digests = new ConcurrentHashMap<>();
+    
+    // Locks waiting for their key to be released
+    final WaiterRegistry<RedisLock> retryingLocks = new WaiterRegistry<>();
+    
+    // Fair locks waiting in a server-side queue, keyed by their uuid
+    final ConcurrentMap<String, RedisLock> fairWaiters = new ConcurrentHashMap<>();
+    
+    // The same fair locks, keyed by the lock they queue for
+    final WaiterRegistry<RedisLock> fairQueues = new WaiterRegistry<>();
+    
+    // Pool locks waiting for a slot, keyed by their pool
+    final WaiterRegistry<RedisPoolLock> poolWaiters = new WaiterRegistry<>();
+    
+    // Candidates of leader elections, keyed by their leader key
+    final WaiterRegistry<RedisLeaderElection> elections = new WaiterRegistry<>();
+    
     /**
-     * Constructs a RedisLockFactory with the specified RedisClient.
+     * Constructs a RedisLockFactory with the specified RedisClient, storing locks in the plain textual format.
      *
      * @param redisClient the RedisClient instance to handle Redis connections
      */
     public RedisLockFactory(RedisClient redisClient) {
+        this(redisClient, new RedisLockCodec());
+    }
+    
+    /**
+     * Constructs a RedisLockFactory with the specified RedisClient and codec.
+     * All factories sharing a Redis server and key prefix must use equivalent codecs.
+     *
+     * @param redisClient the RedisClient instance to handle Redis connections
+     * @param codec the codec for lock keys, values and notifications
+     */
+    public RedisLockFactory(RedisClient redisClient, RedisLockCodec codec) {
+        this(redisClient, codec, null, false);
+    }
+    
+    /**
+     * Constructs a RedisLockFactory with the specified RedisClient and codec, running its locks on the given executor.
+     * All factories sharing a Redis server and key prefix must use equivalent codecs.
+     *
+     * @param redisClient the RedisClient instance to handle Redis connections
+     * @param codec the codec for lock keys, values and notifications
+     * @param executor the executor for asynchronous lock operations, not shut down by {@link #close()}
+     */
+    public RedisLockFactory(RedisClient redisClient, RedisLockCodec codec, ExecutorService executor) {
+        this(redisClient, codec, executor, false);
+    }
+    
+    private RedisLockFactory(RedisClient redisClient, RedisLockCodec codec, ExecutorService executor, boolean async) {
+        super(executor);
         this.redisClient = redisClient;
-        initializeRedisKeyspace();
+        this.codec = codec;
+        this.scripts = new RedisLockScripts(codec);
+        if (async) {
+            initializeAsync(this::initializeRedisKeyspace);
+        }
+        else {
+            initialize(this::initializeRedisKeyspace);
+        }
+    }
+    
+    /**
+     * Starts a RedisLockFactory storing locks in the plain textual format, connecting in the background.
+     *
+     * @param redisClient the RedisClient instance to handle Redis connections
+     * @return a factory that queues lock operations until it is connected
+     * @see #startAsync(RedisClient, RedisLockCodec, ExecutorService)
+     */
+    public static RedisLockFactory startAsync(RedisClient redisClient) {
+        return startAsync(redisClient, new RedisLockCodec());
+    }
+    
+    /**
+     * Starts a RedisLockFactory with the specified codec, connecting in the background.
+     *
+     * @param redisClient the RedisClient instance to handle Redis connections
+     * @param codec the codec for lock keys, values and notifications
+     * @return a factory that queues lock operations until it is connected
+     * @see #startAsync(RedisClient, RedisLockCodec, ExecutorService)
+     */
+    public static RedisLockFactory startAsync(RedisClient redisClient, RedisLockCodec codec) {
+        return new RedisLockFactory(redisClient, codec, null, true);
+    }
+    
+    /**
+     * Starts a RedisLockFactory with the specified codec, running its locks on the given executor
+     * and connecting in the background. The connections are opened, the scripts loaded and the
+     * notifications subscribed to without blocking the caller, retrying with a backoff while
+     * Redis is unavailable. Lock operations issued meanwhile are queued and sent once connected,
+     * see {@link #whenReady()}.
+     *
+     * @param redisClient the RedisClient instance to handle Redis connections
+     * @param codec the codec for lock keys, values and notifications
+     * @param executor the executor for asynchronous lock operations, not shut down by {@link #close()}
+     * @return a factory that queues lock operations until it is connected
+     */
+    public static RedisLockFactory startAsync(RedisClient redisClient, RedisLockCodec codec, ExecutorService executor) {
+        return new RedisLockFactory(redisClient, codec, executor, true);
     }
     
     // Builder pattern approach
     public ALockBuilder builder() {
-        return new RedisLockBuilder();
+        return new RedisLockBuilder(this);
     }
     
     // Direct creation approach
     public ALock createLock(String key) {
-        return new RedisLock(key);
+        return new RedisLock(key, this);
+    }
+
+    public APoolLock createPool(String pool, int slots) {
+        return builder().buildPool(pool, slots);
+    }
+
+    public ALeaderElection createElection(String name, long leaseMS) {
+        return new RedisLeaderElection(name, leaseMS, this);
     }
 
-    private RedisAsyncCommands<String, String> rcommands;
-    
     /**
      * Initializes Redis for lock functionality. 
      * This is where we would set up any Redis-specific configurations.
      * There's no direct equivalent to MongoDB's collection creation and indexing,
-     * but we can ensure Redis is properly connected and configure key notifications.
+     * but we can ensure Redis is properly connected, preload the lock scripts and
+     * subscribe to lock notifications.
      */
     private void initializeRedisKeyspace() {
-        // Start the watch mechanism for lock notifications
-        RedisLock._startWatch(redisClient);
-        
-        // Test connection and check Redis version to ensure compatibility
-        RedisCommands<String, String> commands = redisClient.connect().sync();
-        String info = commands.info("server");
+        try {
+            // Test connection and check Redis version to ensure compatibility
+            connection = redisClient.connect(codec);
+            String info = connection.sync().info("server");
+            
+            // Verify Redis version is compatible (Redis 2.6+ for Lua scripts)
+            // This is just a basic check - production code would parse the version more carefully
+            if (!info.contains("redis_version:")) {
+                throw new RuntimeException("Unable to retrieve Redis server information");
+            }
+            
+            // Load the scripts into the script cache, so lock calls only send their digest
+            for (String script : scripts.all()) {
+                digests.put(script, connection.sync().scriptLoad(script));
+            }
+            
+            // For Redis, we don't need to create "collections" or indexes
+            // Keys will expire based on the TTL we set during lock acquisition
+            commands = connection.async();
+            
+            // Start the watch mechanism for lock notifications
+            pubSubConnection = redisClient.connectPubSub(codec);
+            pubSubConnection.addListener(new RedisPubSubAdapter<String, byte[]>() {
+                @Override
+                public void message(String channel, byte[] message) {
+                    if (LOCK_CHANNEL.equals(channel)) {
+                        onLockEvent(message);
+                    }
+                }
+            });
+            pubSubConnection.sync().subscribe(LOCK_CHANNEL);
+        } catch (RuntimeException e) {
+            closeConnections();
+            throw e;
+        }
+    }
+    
+    /**
+     * Runs a command once this factory is connected.
+     *
+     * @param command the command to run on the factory's connection
+     * @return the result of the command
+     */
+    <T> CompletableFuture<T> call(final Function<RedisAsyncCommands<String, byte[]>, RedisFuture<T>> command) {
+        return afterReady(() -> command.apply(commands).toCompletableFuture());
+    }
+    
+    /**
+     * Runs one of the lock scripts once this factory is connected. The script is called by its
+     * digest, and only sent in full if the server's script cache no longer holds it, such as
+     * after a SCRIPT FLUSH or a failover.
+     *
+     * @param script the script, one of {@link RedisLockScripts}
+     * @param type the type of the script's result
+     * @param keys the keys passed to the script
+     * @param values the arguments passed to the script
+     * @return the result of the script
+     */
+    <T> CompletableFuture<T> eval(final String script, final ScriptOutputType type, final String[] keys, final byte[]... values) {
+        return this.<T>call(c -> {
+            final String digest = digests.get(script);
+            return digest != null ? c.<T>evalsha(digest, type, keys, values) : c.<T>eval(script, type, keys, values);
+        }).exceptionallyCompose(ex -> {
+            if (!(ex instanceof RedisNoScriptException) && !(ex.getCause() instanceof RedisNoScriptException)) {
+                return CompletableFuture.failedFuture(ex);
+            }
+            return this.<T>call(c -> c.<T>eval(script, type, keys, values));
+        });
+    }
+    
+    /**
+     * Wakes up the locks of this factory waiting for a lock notification.
+     */
+    private void onLockEvent(final byte[] message) {
+        final String key = codec.deletedKey(message);
+        if (key != null) {
+            eventPublisher.publish(LockEvent.Type.RELEASED, key);
+            for (RedisLock lock : retryingLocks.get(key)) {
+                if (retryingLocks.remove(key, lock)) {
+                    lock.onLockReleased();
+                }
+            }
+            // The lock was removed without a hand-off, let queued waiters promote the head
+            for (RedisLock waiter : fairQueues.get(key)) {
+                waiter.onQueueReleased();
+            }
+            // The leadership was given up, candidates campaign right away
+            for (RedisLeaderElection candidate : elections.get(key)) {
+                candidate.onLeadershipVacated();
+            }
+            // A slot was freed, every waiter of its pool tries to take one
+            final String pool = APoolLock.poolOf(key);
+            if (pool != null) {
+                for (RedisPoolLock waiter : poolWaiters.get(pool)) {
+                    waiter.onSlotFreed();
+                }
+            }
+            return;
+        }
         
-        // Verify Redis version is compatible (Redis 2.6+ for Lua scripts)
-        // This is just a basic check - production code would parse the version more carefully
-        if (!info.contains("redis_version:")) {
-            throw new RuntimeException("Unable to retrieve Redis server information");
+        final String acquiredKey = codec.acquiredKey(message);
+        if (acquiredKey != null) {
+            eventPublisher.publish(LockEvent.Type.ACQUIRED, acquiredKey);
+            return;
         }
         
-        // For Redis, we don't need to create "collections" or indexes
-        // Keys will expire based on the TTL we set during lock acquisition
-        rcommands = redisClient.connect().async();
+        final String grantedUuid = codec.grantedUuid(message);
+        if (grantedUuid != null) {
+            final RedisLock lock = fairWaiters.get(grantedUuid);
+            if (lock != null) {
+                lock.onLockGranted();
+            }
+        }
     }
 
+    /**
+     * @return {@code true} if acquisitions by this factory's locks are announced as lock events
+     */
+    public boolean isAcquireEvents() {
+        return acquireEvents;
+    }
+    
+    /**
+     * Announces every acquisition by this factory's locks on the lock channel, so that
+     * {@link #events()} of all factories report ACQUIRED events. Redis does not notify
+     * acquisitions by itself, so each one then costs an additional PUBLISH. Disabled by default.
+     *
+     * @param acquireEvents {@code true} to announce acquisitions
+     */
+    public void setAcquireEvents(final boolean acquireEvents) {
+        this.acquireEvents = acquireEvents;
+    }
+    
+    /**
+     * Publishes the notification of a lock acquired by this factory, when acquisitions are announced.
+     *
+     * @param key the acquired key
+     */
+    void announceAcquired(final String key) {
+        if (!acquireEvents) return;
+        
+        call(c -> c.publish(LOCK_CHANNEL, codec.acquireMessage(key))).exceptionally(ex -> {
+            ex.printStackTrace();
+            return null;
+        });
+    }
+    
+    /**
+     * Reports EXPIRED lock events for keys that Redis expires, which happens when a holder
+     * did not release its lock in time, for example because it crashed. Opens an additional
+     * connection subscribed to keyspace notifications, which the server only sends when its
+     * {@code notify-keyspace-events} setting includes {@code Ex}. Keys outside the codec's
+     * prefix and the wait queue and waiter keys of fair locks are ignored.
+     * Once enabled, these notifications are the only source of EXPIRED events of this factory, so
+     * no expiration is reported twice. The local expiration timer of a running factory deletes its
+     * locks just before Redis would expire them, so those are then reported as RELEASED.
+     *
+     * @return a CompletableFuture that completes once subscribed
+     */
+    public CompletableFuture<Void> enableExpiryEvents() {
+        return afterReady(() -> CompletableFuture.runAsync(this::subscribeExpiryEvents, executor));
+    }
+    
+    private synchronized void subscribeExpiryEvents() {
+        if (expiryConnection != null) return;
+        
+        expiryConnection = redisClient.connectPubSub(StringCodec.UTF8);
+        expiryConnection.addListener(new RedisPubSubAdapter<String, String>() {
+            @Override
+            public void message(String pattern, String channel, String message) {
+                final String key = codec.unprefixedKey(message);
+                if (key != null) {
+                    eventPublisher.publish(LockEvent.Type.EXPIRED, key);
+                }
+            }
+        });
+        expiryConnection.sync().psubscribe(EXPIRED_PATTERN);
+    }
+    
+    @Override
+    protected boolean reportsLocalExpirations() {
+        return expiryConnection == null;
+    }
+    
     @Override
     public CompletableFuture<String> getPassword(String key) {
-        return rcommands.get(key).toCompletableFuture();
+        return call(c -> c.get(key)).thenApply(codec::decodeLockValue);
+    }
+
+    @Override
+    public String getBackend() {
+        return "redis";
+    }
+
+    @Override
+    public CompletableFuture<Integer> releaseAll() {
+        List<ALock> locks = new ArrayList<>(heldLocks);
+        if (locks.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        
+        String[] keys = new String[locks.size() + 1];
+        byte[][] values = new byte[locks.size()][];
+        keys[0] = LOCK_CHANNEL;
+        for (int i = 0; i < locks.size(); i++) {
+            ALock lock = locks.get(i);
+            if (lock instanceof RedisPoolLock poolLock) {
+                keys[i + 1] = poolLock.slotKey();
+                values[i] = poolLock.lockValue();
+            }
+            else {
+                keys[i + 1] = lock.getKey();
+                values[i] = ((RedisLock) lock).lockValue();
+            }
+        }
+        // Keys are read before, as releasing a pool lock gives up its slot
+        for (ALock lock : locks) {
+            onReleasedInBulk(lock);
+        }
+        
+        return eval(scripts.releaseAll, ScriptOutputType.INTEGER, keys, values)
+        .thenApply(result -> ((Long) result).intValue());
+    }
+
+    private synchronized void closeConnections() {
+        if (expiryConnection != null) {
+            expiryConnection.close();
+            expiryConnection = null;
+        }
+        if (pubSubConnection != null) {
+            pubSubConnection.close();
+        }
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closeConnections();
+        super.close();
     }
-}
\ No newline at end of file
+}
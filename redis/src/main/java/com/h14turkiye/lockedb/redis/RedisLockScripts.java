@@ -0,0 +1,206 @@
+package com.h14turkiye.lockedb.redis;
+
+import java.util.List;
+
+/**
+ * The Lua scripts used by Redis locks, rendered for the notification format of a codec.
+ */
+class RedisLockScripts {
+    /**
+     * Deletes the lock if it still holds the expected value and notifies waiters.
+     * KEYS: lock key, channel. ARGV: lock value.
+     */
+    final String release;
+
+    /**
+     * Deletes every lock still holding its expected value and notifies waiters of each.
+     * KEYS: channel, lock keys. ARGV: lock values, in the order of the keys.
+     */
+    final String releaseAll;
+
+    /**
+     * Takes the lock if it is free, otherwise joins its wait queue.
+     * KEYS: lock key, channel. ARGV: owner id, lock value, TTL, password suffix, waiter timeout.
+     */
+    final String fairAcquire;
+
+    /**
+     * Leaves the wait queue and, if the lock is held, hands it over to the next waiter.
+     * KEYS: lock key, channel. ARGV: lock value, owner id.
+     */
+    final String fairRelease;
+
+    /**
+     * Takes the lock if it is free or protected by the same password, returning its guarded state.
+     * The state is kept in a "<key>:state" hash that outlives the lock.
+     * KEYS: lock key. ARGV: lock value, TTL, password suffix.
+     */
+    final String guardedAcquire;
+
+    /**
+     * Writes the guarded state if its version is unchanged, then deletes the lock and notifies waiters.
+     * KEYS: lock key, channel. ARGV: lock value, new state, expected version, whether to keep the state.
+     */
+    final String guardedRelease;
+
+    /**
+     * Takes the first free slot of a pool, starting from a given slot and wrapping around.
+     * Each slot is a "{<pool>}:slot:<n>" key, so slots expire independently and share a cluster hash slot.
+     * KEYS: every slot key, in slot order. ARGV: lock value, TTL, first slot to try.
+     */
+    final String poolAcquire;
+
+    /**
+     * Takes the leadership if it is free and increments the term kept in a "<key>:term" key,
+     * otherwise returns the time left on the current lease.
+     * KEYS: leader key. ARGV: candidate value, lease.
+     */
+    final String electAcquire;
+
+    /**
+     * Extends the lease if it is still held by the candidate.
+     * KEYS: leader key. ARGV: candidate value, lease.
+     */
+    final String electRenew;
+
+    RedisLockScripts(final RedisLockCodec codec) {
+        release =
+        "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+        "  redis.call('del', KEYS[1]) " +
+        "  redis.call('publish', KEYS[2], " + codec.deleteMessageExpression("KEYS[1]") + ") " +
+        "  return 1 " +
+        "else " +
+        "  return 0 " +
+        "end";
+        
+        releaseAll =
+        "local released = 0 " +
+        "for i = 2, #KEYS do " +
+        "  if redis.call('get', KEYS[i]) == ARGV[i - 1] then " +
+        "    redis.call('del', KEYS[i]) " +
+        "    redis.call('publish', KEYS[1], " + codec.deleteMessageExpression("KEYS[i]") + ") " +
+        "    released = released + 1 " +
+        "  end " +
+        "end " +
+        "return released";
+        
+        // Hands the lock over to the first waiter of the queue that has not expired yet.
+        // Waiters are kept in the "{<key>}:queue" list, each with a "{<key>}:waiter:<id>" hash
+        // holding its lock value and TTL that expires when the waiter gives up.
+        String grantNext =
+        "local function grantNext(key, channel) " +
+        "  local queue = " + codec.queueKeyExpression("key") + " " +
+        "  while true do " +
+        "    local head = redis.call('lpop', queue) " +
+        "    if not head then return false end " +
+        "    local waiter = " + codec.waiterKeyExpression("key", "head") + " " +
+        "    local entry = redis.call('hmget', waiter, 'value', 'ttl') " +
+        "    if entry[1] then " +
+        "      redis.call('del', waiter) " +
+        "      redis.call('set', key, entry[1], 'PX', entry[2]) " +
+        "      redis.call('publish', channel, " + codec.grantMessageExpression("head") + ") " +
+        "      return true " +
+        "    end " +
+        "  end " +
+        "end ";
+        
+        fairAcquire =
+        grantNext +
+        "local current = redis.call('get', KEYS[1]) " +
+        "if current and ARGV[4] ~= '' and string.sub(current, -string.len(ARGV[4])) == ARGV[4] then " +
+        "  redis.call('set', KEYS[1], ARGV[2], 'PX', ARGV[3]) " +
+        "  return 1 " +
+        "end " +
+        "if not current then " +
+        "  if not grantNext(KEYS[1], KEYS[2]) then " +
+        "    redis.call('set', KEYS[1], ARGV[2], 'PX', ARGV[3]) " +
+        "    return 1 " +
+        "  end " +
+        "  if redis.call('get', KEYS[1]) == ARGV[2] then return 1 end " +
+        "end " +
+        "local queue = " + codec.queueKeyExpression("KEYS[1]") + " " +
+        "local waiter = " + codec.waiterKeyExpression("KEYS[1]", "ARGV[1]") + " " +
+        "local created = redis.call('exists', queue) == 0 " +
+        "if created or redis.call('exists', waiter) == 0 then redis.call('rpush', queue, ARGV[1]) end " +
+        "redis.call('hset', waiter, 'value', ARGV[2], 'ttl', ARGV[3]) " +
+        "local timeout = tonumber(ARGV[5]) " +
+        "if timeout > 0 then " +
+        "  redis.call('pexpire', waiter, timeout) " +
+        // A queue just created has no TTL yet, while an existing queue without TTL holds a waiter that never gives up
+        "  local queueTTL = redis.call('pttl', queue) " +
+        "  if (created and queueTTL == -1) or (queueTTL >= 0 and queueTTL < timeout) then redis.call('pexpire', queue, timeout) end " +
+        "else " +
+        "  redis.call('persist', waiter) " +
+        "  redis.call('persist', queue) " +
+        "end " +
+        "return 0";
+        
+        fairRelease =
+        grantNext +
+        "redis.call('del', " + codec.waiterKeyExpression("KEYS[1]", "ARGV[2]") + ") " +
+        "redis.call('lrem', " + codec.queueKeyExpression("KEYS[1]") + ", 0, ARGV[2]) " +
+        "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+        "  redis.call('del', KEYS[1]) " +
+        "  if not grantNext(KEYS[1], KEYS[2]) then " +
+        "    redis.call('publish', KEYS[2], " + codec.deleteMessageExpression("KEYS[1]") + ") " +
+        "  end " +
+        "  return 1 " +
+        "end " +
+        "return 0";
+        
+        // The value is returned last, so a missing value only shortens the reply
+        guardedAcquire =
+        "local current = redis.call('get', KEYS[1]) " +
+        "if (not current) or (ARGV[3] ~= '' and string.sub(current, -string.len(ARGV[3])) == ARGV[3]) then " +
+        "  redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2]) " +
+        "  local state = redis.call('hmget', KEYS[1] .. ':state', 'version', 'value') " +
+        "  return {1, state[1] or '0', state[2]} " +
+        "end " +
+        "return {0}";
+        
+        guardedRelease =
+        "if redis.call('get', KEYS[1]) ~= ARGV[1] then return 0 end " +
+        "local state = KEYS[1] .. ':state' " +
+        "local version = tonumber(redis.call('hget', state, 'version') or '0') " +
+        "local written = 0 " +
+        "if version == tonumber(ARGV[3]) then " +
+        "  if ARGV[4] == '1' then " +
+        "    redis.call('hset', state, 'value', ARGV[2], 'version', version + 1) " +
+        "  else " +
+        "    redis.call('hdel', state, 'value') " +
+        "    redis.call('hset', state, 'version', version + 1) " +
+        "  end " +
+        "  written = 1 " +
+        "end " +
+        "redis.call('del', KEYS[1]) " +
+        "redis.call('publish', KEYS[2], " + codec.deleteMessageExpression("KEYS[1]") + ") " +
+        "return written";
+        
+        poolAcquire =
+        "local slots = #KEYS " +
+        "for i = 0, slots - 1 do " +
+        "  local slot = (tonumber(ARGV[3]) + i) % slots " +
+        "  if redis.call('set', KEYS[slot + 1], ARGV[1], 'NX', 'PX', ARGV[2]) then return slot end " +
+        "end " +
+        "return -1";
+        
+        electAcquire =
+        "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then " +
+        "  return {1, redis.call('incr', KEYS[1] .. ':term')} " +
+        "end " +
+        "return {0, redis.call('pttl', KEYS[1])}";
+        
+        electRenew =
+        "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+        "  return redis.call('pexpire', KEYS[1], ARGV[2]) " +
+        "end " +
+        "return 0";
+    }
+
+    /**
+     * @return every script, to be loaded into the server's script cache when connecting
+     */
+    List<String> all() {
+        return List.of(release, releaseAll, fairAcquire, fairRelease, guardedAcquire, guardedRelease, poolAcquire, electAcquire, electRenew);
+    }
+}
@@ -0,0 +1,145 @@
+package com.h14turkiye.lockedb.redis;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.h14turkiye.lockedb.APoolLock;
+import io.lettuce.core.ScriptOutputType;
+
+public class RedisPoolLock extends APoolLock {
+    // TTL buffer to ensure our release() runs before Redis auto-expires the slot
+    private static final long TTL_BUFFER_MS = 5;
+
+    // The factory owning the connection, scripts and waiter registries this lock uses
+    private final RedisLockFactory redisFactory;
+
+    private final String[] slotKeys;
+    private byte[] lockValue;
+
+    public RedisPoolLock(final String pool, final int slots, final RedisLockFactory factory) {
+        super(factory, pool, slots);
+        this.redisFactory = factory;
+        this.slotKeys = new String[slots];
+        for (int i = 0; i < slots; i++) {
+            slotKeys[i] = slotKey(pool, i);
+        }
+    }
+
+    @Override
+    protected void onAcquired() {
+        super.onAcquired();
+        redisFactory.announceAcquired(slotKey());
+    }
+
+    /**
+    * @return the value stored under a slot key while this lock holds it
+    */
+    byte[] lockValue() {
+        if (lockValue == null) {
+            lockValue = redisFactory.codec.lockValue(uuid, null);
+        }
+        return lockValue;
+    }
+
+    /**
+    * @return the key of the slot currently held
+    */
+    String slotKey() {
+        return slotKey(key, slot);
+    }
+
+    public CompletableFuture<Boolean> acquire() {
+        acquireFuture = newAcquireFuture();
+        if (timeoutMS > 0) {
+            schedule(() -> {
+                if (acquireFuture.complete(false)) {
+                    removeWaiter();
+                }
+            }, timeoutMS);
+        }
+        // Wait for freed slots before the first attempt, so a slot freed in between is not missed
+        redisFactory.poolWaiters.add(key, this);
+        attemptPoolAcquisition();
+        return acquireFuture;
+    }
+
+    /**
+    * Takes any free slot of the pool in a single script call, starting from a random
+    * slot so concurrent callers spread over the pool instead of contending on the first slot.
+    */
+    private void attemptPoolAcquisition() {
+        if (acquireFuture.isDone()) return;
+
+        long redisTTL = expiresAfterMS + TTL_BUFFER_MS;
+        onRoundTrip();
+        redisFactory.eval(
+        redisFactory.scripts.poolAcquire,
+        ScriptOutputType.INTEGER,
+        slotKeys,
+        lockValue(), RedisLock.arg(redisTTL), RedisLock.arg(ThreadLocalRandom.current().nextInt(slots))
+        ).thenAcceptAsync(result -> {
+            int taken = ((Long) result).intValue();
+            if (taken < 0) {
+                onContended();
+                return;
+            }
+            if (onSlotTaken(taken)) {
+                removeWaiter();
+            }
+            else {
+                releaseSlot(taken);
+            }
+        }, executor).exceptionally(ex -> {
+            ex.printStackTrace();
+            return null;
+        });
+    }
+
+    /**
+    * Called when a slot of the pool has been released while this lock is waiting.
+    */
+    void onSlotFreed() {
+        onNotified("DELETE");
+        executor.execute(this::attemptPoolAcquisition);
+    }
+
+    private void removeWaiter() {
+        redisFactory.poolWaiters.remove(key, this);
+    }
+
+    public CompletableFuture<Boolean> release() {
+        removeWaiter();
+        final int held = onSlotReleased();
+        if (held < 0) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return releaseSlot(held);
+    }
+
+    private CompletableFuture<Boolean> releaseSlot(final int released) {
+        return redisFactory.eval(
+        redisFactory.scripts.release,
+        ScriptOutputType.INTEGER,
+        new String[]{slotKeys[released], RedisLockFactory.LOCK_CHANNEL},
+        lockValue()
+        ).thenApply(result -> result != null && (Long) result == 1L)
+        .exceptionally(ex -> {
+            ex.printStackTrace();
+            return false;
+        });
+    }
+
+    /**
+    * Checks asynchronously whether every slot of the pool is held.
+    */
+    public CompletableFuture<Boolean> isLocked() {
+        return redisFactory.call(c -> c.exists(slotKeys)).thenApplyAsync(held -> held >= slots, executor);
+    }
+
+    /**
+    * Checks asynchronously whether any slot of the pool is free.
+    */
+    public CompletableFuture<Boolean> isAcquirable() {
+        return isLocked().thenApply(locked -> !locked);
+    }
+}
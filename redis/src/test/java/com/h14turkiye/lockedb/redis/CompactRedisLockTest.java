@@ -0,0 +1,14 @@
+package com.h14turkiye.lockedb.redis;
+
+import org.junit.jupiter.api.BeforeAll;
+
+/**
+ * Runs the Redis lock tests with compact binary lock values under a key prefix.
+ */
+public class CompactRedisLockTest extends RedisLockTest {
+    
+    @BeforeAll
+    static void setup() {
+        start(new RedisLockCodec("lockedb:", true));
+    }
+}
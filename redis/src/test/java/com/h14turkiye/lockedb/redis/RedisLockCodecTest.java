@@ -0,0 +1,175 @@
+package com.h14turkiye.lockedb.redis;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the encoding of keys, lock values and notifications, without a Redis server.
+ */
+public class RedisLockCodecTest {
+    private static final String UUID_STRING = UUID.randomUUID().toString();
+
+    private final RedisLockCodec plain = new RedisLockCodec();
+    private final RedisLockCodec compact = new RedisLockCodec("lockedb:", true);
+
+    /**
+    * Keys are stored under the prefix and read back without it, whether or not they are ASCII
+    */
+    @Test
+    public void testKeyPrefix() {
+        assertEquals("lockedb:resource", utf8(compact.encodeKey("resource")));
+        assertEquals("resource", compact.decodeKey(compact.encodeKey("resource")));
+        assertEquals("ressource-\u00e9", compact.decodeKey(compact.encodeKey("ressource-\u00e9")));
+        assertEquals("lockedb:ressource-\u00e9", utf8(compact.encodeKey("ressource-\u00e9")));
+
+        assertEquals("resource", utf8(plain.encodeKey("resource")));
+        assertEquals("resource", plain.decodeKey(plain.encodeKey("resource")));
+
+        assertEquals("resource", compact.unprefixedKey("lockedb:resource"));
+        assertNull(compact.unprefixedKey("other:resource"), "Keys outside the prefix should be ignored");
+    }
+
+    /**
+    * The expiring keys kept next to a lock are not mistaken for locks, and locks named like them are not dropped
+    */
+    @Test
+    public void testAuxiliaryKeys() {
+        assertEquals("resource", plain.unprefixedKey("resource"));
+        assertNull(plain.unprefixedKey(plain.queueKey("resource")), "The wait queue is not a lock");
+        assertNull(plain.unprefixedKey("{resource}:waiter:" + UUID_STRING), "A waiter entry is not a lock");
+        assertNull(compact.unprefixedKey(compact.queueKey("resource")), "The wait queue is not a lock");
+
+        assertEquals("resource:state", plain.unprefixedKey("resource:state"));
+        assertEquals("resource:queue", plain.unprefixedKey("resource:queue"));
+        assertEquals("resource:waiter:" + UUID_STRING, plain.unprefixedKey("resource:waiter:" + UUID_STRING));
+        assertEquals("election:leader:term", plain.unprefixedKey("election:leader:term"));
+        assertEquals("{}:queue", plain.unprefixedKey("{}:queue"), "Without a lock key inside the tag, a key is not a wait queue");
+        assertEquals("resource:queue", compact.unprefixedKey("lockedb:resource:queue"));
+    }
+
+    /**
+    * Compact lock values are 16 owner bytes followed by an 8 byte password hash
+    */
+    @Test
+    public void testCompactLockValue() {
+        final byte[] ownerId = compact.ownerId(UUID_STRING);
+        assertEquals(16, ownerId.length, "The owner id should be the raw UUID bytes");
+        final UUID uuid = UUID.fromString(UUID_STRING);
+        assertArrayEquals(ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array(), ownerId);
+
+        final byte[] value = compact.lockValue(UUID_STRING, "secret");
+        assertEquals(24, value.length, "A compact lock value should take 24 bytes");
+        assertArrayEquals(ownerId, Arrays.copyOf(value, 16), "The value should start with the owner id");
+        assertArrayEquals(compact.passwordSuffix("secret"), Arrays.copyOfRange(value, 16, 24), "The value should end with the password hash");
+        assertEquals(16, compact.lockValue(UUID_STRING, null).length, "A value without password should only hold the owner id");
+        assertNull(compact.decodeLockValue(value), "Compact values have no textual form");
+    }
+
+    /**
+    * Plain lock values keep the textual uuid:password format
+    */
+    @Test
+    public void testPlainLockValue() {
+        assertEquals(UUID_STRING + ":secret", utf8(plain.lockValue(UUID_STRING, "secret")));
+        assertEquals(UUID_STRING, utf8(plain.lockValue(UUID_STRING, null)));
+        assertEquals(UUID_STRING + ":secret", plain.decodeLockValue(plain.lockValue(UUID_STRING, "secret")));
+    }
+
+    /**
+    * A lock value matches the suffix of its own password only
+    */
+    @Test
+    public void testPasswordSuffix() {
+        for (RedisLockCodec codec : new RedisLockCodec[]{plain, compact}) {
+            final byte[] value = codec.lockValue(UUID_STRING, "secret");
+            assertTrue(codec.hasPasswordSuffix(value, codec.passwordSuffix("secret")), "The value should match its password");
+            assertFalse(codec.hasPasswordSuffix(value, codec.passwordSuffix("other")), "The value should not match another password");
+            assertFalse(codec.hasPasswordSuffix(value, codec.passwordSuffix(null)), "Nothing should match a missing password");
+            assertFalse(codec.hasPasswordSuffix(codec.lockValue(UUID_STRING, null), codec.passwordSuffix("secret")), "A value without password should not match");
+            assertFalse(codec.hasPasswordSuffix(new byte[2], codec.passwordSuffix("secret")), "A value shorter than the suffix should not match");
+        }
+    }
+
+    /**
+    * Removal notifications carry the key without its prefix, in plain or compact form
+    */
+    @Test
+    public void testDeleteMessage() {
+        assertEquals("'DELETE:' .. KEYS[1]", plain.deleteMessageExpression("KEYS[1]"));
+        assertEquals("resource", plain.deletedKey(bytes("DELETE:resource")));
+
+        assertEquals("'\\1' .. string.sub(KEYS[1], 9)", compact.deleteMessageExpression("KEYS[1]"), "The script should strip the 8 byte prefix");
+        assertEquals("resource", compact.deletedKey(message((byte) 1, bytes("resource"))));
+
+        assertNull(plain.deletedKey(bytes("GRANT:" + UUID_STRING)));
+        assertNull(compact.deletedKey(message((byte) 3, bytes("resource"))));
+        assertNull(compact.deletedKey(new byte[0]));
+    }
+
+    /**
+    * Hand-over notifications carry the new owner's id, as raw bytes in compact form
+    */
+    @Test
+    public void testGrantMessage() {
+        assertEquals("'GRANT:' .. ARGV[1]", plain.grantMessageExpression("ARGV[1]"));
+        assertEquals(UUID_STRING, plain.grantedUuid(bytes("GRANT:" + UUID_STRING)));
+
+        assertEquals("'\\2' .. ARGV[1]", compact.grantMessageExpression("ARGV[1]"));
+        final byte[] grant = message((byte) 2, compact.ownerId(UUID_STRING));
+        assertEquals(17, grant.length, "A compact hand-over should take 17 bytes");
+        assertEquals(UUID_STRING, compact.grantedUuid(grant));
+
+        assertNull(plain.grantedUuid(bytes("DELETE:resource")));
+        assertNull(compact.grantedUuid(message((byte) 1, bytes("resource"))));
+        assertNull(compact.deletedKey(grant));
+    }
+
+    /**
+    * Acquisition notifications round-trip their key
+    */
+    @Test
+    public void testAcquireMessage() {
+        assertEquals("ACQUIRE:resource", utf8(plain.acquireMessage("resource")));
+        assertEquals("resource", plain.acquiredKey(plain.acquireMessage("resource")));
+
+        final byte[] acquire = compact.acquireMessage("resource");
+        assertArrayEquals(message((byte) 3, bytes("resource")), acquire);
+        assertEquals("resource", compact.acquiredKey(acquire));
+
+        assertNull(plain.deletedKey(plain.acquireMessage("resource")));
+        assertNull(compact.deletedKey(acquire));
+        assertNull(compact.acquiredKey(message((byte) 1, bytes("resource"))));
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String utf8(final ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    private static String utf8(final byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] message(final byte type, final byte[] payload) {
+        return concat(new byte[]{type}, payload);
+    }
+
+    private static byte[] concat(final byte[] first, final byte[] second) {
+        final byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
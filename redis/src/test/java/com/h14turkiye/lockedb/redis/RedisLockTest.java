@@ -1,23 +1,67 @@
 package com.h14turkiye.lockedb.redis;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.utility.DockerImageName;
 
+import com.h14turkiye.lockedb.ALock;
 import com.h14turkiye.lockedb.ALockTest;
+import com.h14turkiye.lockedb.LockEvent;
+import com.h14turkiye.lockedb.LockFactory;
+import com.h14turkiye.lockedb.jfr.LockAcquireEvent;
+import com.h14turkiye.lockedb.jfr.LockReleaseEvent;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.RedisURI;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
 
+/**
+ * Runs the lock tests against a Redis container, with plain lock values.
+ */
 public class RedisLockTest extends ALockTest {
     // Using TestContainers' GenericContainer for Redis
     @SuppressWarnings("resource")
     static GenericContainer<?> redisContainer = new GenericContainer<>(DockerImageName.parse("redis:6.2.6")).withExposedPorts(6379);
     
-    private static RedisClient redisClient;
+    protected static RedisClient redisClient;
+    
+    // A client of a port nothing listens on
+    private static RedisClient unreachableClient;
+    
+    // The codec of every factory of the test
+    protected static RedisLockCodec codec;
     
     @BeforeAll
     static void setup() {
+        start(new RedisLockCodec());
+    }
+    
+    /**
+    * Starts the Redis container and the factory shared by the tests.
+    *
+    * @param lockCodec the codec of every factory of the test
+    */
+    protected static void start(final RedisLockCodec lockCodec) {
+        codec = lockCodec;
         try {
             // Start the Redis container
             redisContainer.start();
@@ -31,9 +75,10 @@ public class RedisLockTest extends ALockTest {
             // Create Redis client with the container connection details
             RedisURI redisUri = RedisURI.create(host, port);
             redisClient = RedisClient.create(redisUri);
+            unreachableClient = RedisClient.create(RedisURI.create(host, freePort()));
             
             // Create and assign the lock factory
-            factory = new RedisLockFactory(redisClient);
+            factory = new RedisLockFactory(redisClient, codec);
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -42,12 +87,192 @@ public class RedisLockTest extends ALockTest {
     
     @AfterAll
     static void tearDown() {
-        // Close Redis client
+        if (factory != null) {
+            factory.close();
+        }
+        
+        // Close Redis clients
         if (redisClient != null) {
             redisClient.shutdown();
         }
+        if (unreachableClient != null) {
+            unreachableClient.shutdown();
+        }
         
         // Stop the container
         redisContainer.stop();
     }
-}
\ No newline at end of file
+    
+    @Override
+    protected LockFactory newFactory() {
+        return new RedisLockFactory(redisClient, codec);
+    }
+
+    @Override
+    protected LockFactory startFactory() {
+        return RedisLockFactory.startAsync(redisClient, codec);
+    }
+
+    @Override
+    protected LockFactory startUnreachableFactory() {
+        return RedisLockFactory.startAsync(unreachableClient, codec);
+    }
+
+    /**
+    * With expiry events enabled, a key expired by Redis is reported once, and the keys
+    * kept next to a lock are not reported, while a lock named like them is
+    */
+    @Test
+    public void testExpiryEvents() throws Exception {
+        // Keys written through the codec carry its prefix, like those of the locks
+        try (StatefulRedisConnection<String, byte[]> connection = redisClient.connect(codec);
+        StatefulRedisConnection<String, String> raw = redisClient.connect();
+        RedisLockFactory own = new RedisLockFactory(redisClient, codec)) {
+            connection.sync().configSet("notify-keyspace-events", "Ex");
+            own.enableExpiryEvents().get(5, TimeUnit.SECONDS);
+            QueuedEvents received = new QueuedEvents();
+            own.eventsWithPrefix("crashed-resource").subscribe(received);
+            
+            // A crashed holder leaves its lock and a crashed waiter its wait queue to expire
+            raw.sync().set(codec.queueKey("crashed-resource"), "waiter", SetArgs.Builder.px(50));
+            connection.sync().set("crashed-resource", codec.lockValue(UUID.randomUUID().toString(), null), SetArgs.Builder.px(100));
+            
+            assertEquals(new LockEvent(LockEvent.Type.EXPIRED, "crashed-resource"), received.poll(2, TimeUnit.SECONDS), "The expired lock should be reported");
+            assertNull(received.poll(300, TimeUnit.MILLISECONDS), "The expiration should be reported once, and the wait queue not at all");
+            
+            connection.sync().set("crashed-resource:queue", codec.lockValue(UUID.randomUUID().toString(), null), SetArgs.Builder.px(50));
+            assertEquals(new LockEvent(LockEvent.Type.EXPIRED, "crashed-resource:queue"), received.poll(2, TimeUnit.SECONDS), "A lock named like a wait queue should be reported");
+            
+            // The factory's own expiring locks are not reported a second time by its local timer
+            ALock lock = own.builder().expiresAfterMS(100L).build("crashed-resource-local");
+            assertNotNull(lock.acquire().get(), "Should be able to acquire the lock");
+            assertEquals(new LockEvent(LockEvent.Type.RELEASED, "crashed-resource-local"), received.poll(2, TimeUnit.SECONDS), "A lock released by its expiration timer should be reported as released");
+            assertNull(received.poll(300, TimeUnit.MILLISECONDS), "The expiration should not be reported a second time");
+            received.cancel();
+        }
+    }
+
+    /**
+    * The wait queue of a fair lock expires with its waiters, so entries of crashed waiters do not outlive them
+    */
+    @Test
+    public void testFairQueueExpires() throws Exception {
+        // The queue is outside the codec's prefix, so it is read through a connection without codec
+        try (StatefulRedisConnection<String, String> connection = redisClient.connect()) {
+            ALock holder = factory.builder().fair(true).build("fair-expiring-resource");
+            ALock waiter = factory.builder().fair(true).timeoutMS(5000L).build("fair-expiring-resource");
+            assertTrue(holder.acquire().get(), "Should be able to acquire the fair lock");
+            CompletableFuture<Boolean> waiting = waiter.acquire();
+            awaitWaiting(waiter);
+            
+            final long queueTTL = connection.sync().pttl(codec.queueKey("fair-expiring-resource"));
+            assertTrue(queueTTL > 0 && queueTTL <= 5000L, "A new queue should expire with its waiter, got a TTL of " + queueTTL);
+            
+            assertTrue(holder.release().get(), "Holder should release the fair lock");
+            assertTrue(waiting.get(5, TimeUnit.SECONDS), "Waiter should be handed the lock");
+            assertTrue(waiter.release().get());
+        }
+    }
+
+    /**
+    * A factory started before its server is reachable keeps retrying with a backoff,
+    * and runs the lock operations queued meanwhile once it connects
+    */
+    @Test
+    public void testAsyncStartRetries() throws Exception {
+        final int port = freePort();
+        final RedisClient lateClient = RedisClient.create(RedisURI.create(redisContainer.getHost(), port));
+        try (RedisLockFactory started = RedisLockFactory.startAsync(lateClient, codec)) {
+            ALock lock = started.builder().timeoutMS(30000L).build("late-resource");
+            CompletableFuture<Boolean> acquiring = lock.acquire();
+            
+            // Let a few attempts fail before the server shows up
+            Thread.sleep(500);
+            assertFalse(started.isReady(), "The factory should not be ready while nothing listens on its port");
+            assertFalse(acquiring.isDone(), "The acquisition should wait for the factory to be ready");
+            
+            try (ServerSocket server = forwardToRedis(port)) {
+                started.whenReady().get(20, TimeUnit.SECONDS);
+                assertTrue(started.isReady(), "The factory should connect once the server is reachable");
+                assertTrue(acquiring.get(5, TimeUnit.SECONDS), "The queued acquisition should acquire the lock once connected");
+                assertTrue(factory.createLock("late-resource").isLocked().get(), "The queued acquisition should hold the lock on the server");
+                assertTrue(lock.release().get(), "Should be able to release the lock");
+            }
+        } finally {
+            lateClient.shutdown();
+        }
+    }
+
+    /**
+    * Flight Recorder events carry the lock's key and count every call of an acquisition,
+    * including the TTL lookup made when the key is held
+    */
+    @Test
+    public void testRoundTripEvents() throws Exception {
+        try (RecordingStream stream = new RecordingStream()) {
+            BlockingQueue<RecordedEvent> acquires = new LinkedBlockingQueue<>();
+            BlockingQueue<RecordedEvent> releases = new LinkedBlockingQueue<>();
+            stream.enable(LockAcquireEvent.class);
+            stream.enable(LockReleaseEvent.class);
+            stream.onEvent("com.h14turkiye.lockedb.LockAcquire", event -> {
+                if ("jfr-resource".equals(event.getString("key"))) acquires.add(event);
+            });
+            stream.onEvent("com.h14turkiye.lockedb.LockRelease", event -> {
+                if ("jfr-resource".equals(event.getString("key"))) releases.add(event);
+            });
+            stream.startAsync();
+            
+            // A free key takes a GET and a SET
+            ALock holder = factory.builder().build("jfr-resource");
+            assertTrue(holder.acquire().get(), "Should be able to acquire the lock");
+            RecordedEvent acquired = acquires.poll(10, TimeUnit.SECONDS);
+            assertNotNull(acquired, "The acquisition should be recorded");
+            assertEquals("ACQUIRED", acquired.getString("outcome"));
+            assertEquals("redis", acquired.getString("backend"));
+            assertEquals(2, acquired.getInt("roundTrips"), "A free key should take a GET and a SET");
+            
+            // A held key also takes a TTL lookup before the SET is rejected
+            ALock waiter = factory.builder().timeoutMS(200L).build("jfr-resource");
+            assertFalse(waiter.acquire().get(), "The acquisition should time out while the lock is held");
+            RecordedEvent timedOut = acquires.poll(10, TimeUnit.SECONDS);
+            assertNotNull(timedOut, "The timed out acquisition should be recorded");
+            assertEquals("TIMEOUT", timedOut.getString("outcome"));
+            assertEquals(3, timedOut.getInt("roundTrips"), "A held key should take a GET, a TTL and a SET");
+            
+            assertTrue(holder.release().get(), "Should be able to release the lock");
+            RecordedEvent released = releases.poll(10, TimeUnit.SECONDS);
+            assertNotNull(released, "The release should be recorded");
+            assertEquals("redis", released.getString("backend"));
+            assertTrue(released.getBoolean("held"), "The lock was held when released");
+            assertFalse(released.getBoolean("expired"), "The lock was released by its holder");
+        }
+    }
+
+    /**
+    * Forwards the connections accepted on a port to the Redis container, standing in for a server that starts late.
+    */
+    private static ServerSocket forwardToRedis(final int port) throws IOException {
+        final ServerSocket server = new ServerSocket(port);
+        Thread.ofVirtual().start(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket client = server.accept();
+                    Socket upstream = new Socket(redisContainer.getHost(), redisContainer.getMappedPort(6379));
+                    Thread.ofVirtual().start(() -> pipe(client, upstream));
+                    Thread.ofVirtual().start(() -> pipe(upstream, client));
+                } catch (IOException e) {
+                    // Closed at the end of the test
+                }
+            }
+        });
+        return server;
+    }
+
+    private static void pipe(final Socket from, final Socket to) {
+        try (from; to) {
+            from.getInputStream().transferTo(to.getOutputStream());
+        } catch (IOException e) {
+            // One side hung up
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.h14turkiye.lockedb.soak;
+
+import com.h14turkiye.lockedb.mongodb.MongoLockFactory;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+/**
+ * Runs soak nodes against MongoDB, which must be a replica set for change streams.
+ * Every node gets its own MongoClient, so its connection pool and change stream are
+ * not shared with other nodes.
+ */
+public class MongoSoakBackend implements SoakBackend {
+    private final SoakConfig config;
+
+    public MongoSoakBackend(final SoakConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public NodeConnection connect() {
+        final MongoClient client = MongoClients.create(config.uri());
+        try {
+            return new NodeConnection(new MongoLockFactory(client.getDatabase(config.database())), client::close);
+        } catch (RuntimeException e) {
+            client.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Change streams resume from their last event after an interruption, so MongoDB
+     * notifications cannot be dropped from outside the nodes.
+     */
+    @Override
+    public boolean dropNotifications() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+}
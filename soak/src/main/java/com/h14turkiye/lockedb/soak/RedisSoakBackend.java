@@ -0,0 +1,52 @@
+package com.h14turkiye.lockedb.soak;
+
+import com.h14turkiye.lockedb.redis.RedisLockFactory;
+
+import io.lettuce.core.KillArgs;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+
+/**
+ * Runs soak nodes against Redis. Every node gets its own RedisClient, so its command and
+ * pub/sub connections are not shared with other nodes.
+ */
+public class RedisSoakBackend implements SoakBackend {
+    private final SoakConfig config;
+
+    // Connection used to inject failures, kept apart from the nodes' connections
+    private final RedisClient adminClient;
+    private final StatefulRedisConnection<String, String> admin;
+
+    public RedisSoakBackend(final SoakConfig config) {
+        this.config = config;
+        this.adminClient = RedisClient.create(config.uri());
+        this.admin = adminClient.connect();
+    }
+
+    @Override
+    public NodeConnection connect() {
+        final RedisClient client = RedisClient.create(config.uri());
+        try {
+            return new NodeConnection(new RedisLockFactory(client), client::shutdown);
+        } catch (RuntimeException e) {
+            client.shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * Disconnects every pub/sub client. The nodes reconnect and subscribe again right away,
+     * but the notifications published in between are lost.
+     */
+    @Override
+    public boolean dropNotifications() {
+        admin.sync().clientKill(KillArgs.Builder.typePubsub());
+        return true;
+    }
+
+    @Override
+    public void close() {
+        admin.close();
+        adminClient.shutdown();
+    }
+}
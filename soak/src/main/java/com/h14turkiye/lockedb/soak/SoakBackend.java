@@ -0,0 +1,60 @@
+package com.h14turkiye.lockedb.soak;
+
+import com.h14turkiye.lockedb.LockFactory;
+
+/**
+ * Connects the simulated nodes of a soak run to a database backend, and injects
+ * the backend's failures.
+ */
+public interface SoakBackend extends AutoCloseable {
+
+    /**
+     * Opens a node's own client and lock factory, sharing no connection with other nodes.
+     *
+     * @return the node's connection
+     */
+    public NodeConnection connect();
+
+    /**
+     * Makes the backend lose the lock notifications currently on their way to the nodes.
+     * Waiters that miss their wake-up then only get the lock by timing out and retrying.
+     *
+     * @return {@code false} if the backend cannot drop notifications
+     */
+    public boolean dropNotifications();
+
+    @Override
+    public void close();
+
+    /**
+     * The lock factory of a node and the client it uses, closed together.
+     *
+     * @param factory the node's lock factory
+     * @param client closes the node's client
+     */
+    public record NodeConnection(LockFactory factory, Runnable client) {
+
+        /**
+         * Closes the factory without releasing its locks, as a crashed node would leave them.
+         */
+        public void close() {
+            try {
+                factory.close();
+            } finally {
+                client.run();
+            }
+        }
+    }
+
+    /**
+     * @param config the settings of the run
+     * @return the backend named in the settings
+     */
+    public static SoakBackend of(final SoakConfig config) {
+        return switch (config.backend()) {
+            case "redis" -> new RedisSoakBackend(config);
+            case "mongodb" -> new MongoSoakBackend(config);
+            default -> throw new IllegalArgumentException("Unknown backend " + config.backend() + ", expected redis or mongodb");
+        };
+    }
+}
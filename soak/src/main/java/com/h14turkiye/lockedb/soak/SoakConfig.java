@@ -0,0 +1,106 @@
+package com.h14turkiye.lockedb.soak;
+
+import java.lang.reflect.RecordComponent;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of a soak run, read from {@code --name=value} command line arguments.
+ *
+ * @param backend the database backend, {@code redis} or {@code mongodb}
+ * @param uri the connection string of the backend
+ * @param database the MongoDB database holding the locks collection
+ * @param nodes the number of simulated nodes, each with its own client, connections and factory
+ * @param workers the number of workers per node, each acquiring one lock at a time
+ * @param keys the number of distinct lock keys
+ * @param skew the Zipf exponent of the key popularity, {@code 0} for uniformly distributed keys
+ * @param holdMS how long a lock is held once acquired
+ * @param thinkMS how long a worker pauses between two acquisitions
+ * @param leaseMS the expiration of the locks
+ * @param timeoutMS the acquisition timeout of the locks
+ * @param fair whether the locks are fair
+ * @param durationS the duration of the run, after its warm-up
+ * @param warmupS the duration of the warm-up, whose measurements are discarded
+ * @param reportEveryS the interval between two progress reports
+ * @param killEveryMS the interval between two node kills, {@code 0} to never kill nodes
+ * @param restartDelayMS how long a killed node stays down
+ * @param dropEveryMS the interval between two notification drops, {@code 0} to never drop notifications
+ * @param histogramLog the file interval histograms are logged to, or {@code null}
+ */
+public record SoakConfig(
+String backend,
+String uri,
+String database,
+int nodes,
+int workers,
+int keys,
+double skew,
+long holdMS,
+long thinkMS,
+long leaseMS,
+long timeoutMS,
+boolean fair,
+long durationS,
+long warmupS,
+long reportEveryS,
+long killEveryMS,
+long restartDelayMS,
+long dropEveryMS,
+String histogramLog) {
+
+    // The names of all settings
+    private static final List<String> NAMES = Arrays.stream(SoakConfig.class.getRecordComponents())
+    .map(RecordComponent::getName)
+    .toList();
+
+    /**
+     * Reads the settings from command line arguments, using defaults for the missing ones.
+     *
+     * @param args arguments of the form {@code --name=value}
+     * @return the settings
+     * @throws IllegalArgumentException if an argument is malformed or unknown
+     */
+    public static SoakConfig parse(final String[] args) {
+        final Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        final String backend = values.getOrDefault("backend", "redis");
+        final SoakConfig config = new SoakConfig(
+        backend,
+        values.getOrDefault("uri", backend.equals("mongodb") ? "mongodb://localhost:27017" : "redis://localhost:6379"),
+        values.getOrDefault("database", "lockedb_soak"),
+        Integer.parseInt(values.getOrDefault("nodes", "20")),
+        Integer.parseInt(values.getOrDefault("workers", "4")),
+        Integer.parseInt(values.getOrDefault("keys", "1000")),
+        Double.parseDouble(values.getOrDefault("skew", "1.0")),
+        Long.parseLong(values.getOrDefault("holdMS", "5")),
+        Long.parseLong(values.getOrDefault("thinkMS", "0")),
+        Long.parseLong(values.getOrDefault("leaseMS", "1000")),
+        Long.parseLong(values.getOrDefault("timeoutMS", "2000")),
+        Boolean.parseBoolean(values.getOrDefault("fair", "false")),
+        Long.parseLong(values.getOrDefault("durationS", "60")),
+        Long.parseLong(values.getOrDefault("warmupS", "5")),
+        Long.parseLong(values.getOrDefault("reportEveryS", "10")),
+        Long.parseLong(values.getOrDefault("killEveryMS", "0")),
+        Long.parseLong(values.getOrDefault("restartDelayMS", "2000")),
+        Long.parseLong(values.getOrDefault("dropEveryMS", "0")),
+        values.get("histogramLog"));
+
+        values.keySet().removeAll(NAMES);
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown settings " + values.keySet() + ", expected some of " + NAMES);
+        }
+        if (config.nodes <= 0 || config.workers <= 0 || config.keys <= 0 || config.skew < 0) {
+            throw new IllegalArgumentException("nodes, workers and keys must be positive and skew must not be negative");
+        }
+        return config;
+    }
+}
@@ -0,0 +1,222 @@
+package com.h14turkiye.lockedb.soak;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+/**
+ * Soak test of the locks under contention from many independent nodes.
+ *
+ * Starts a number of simulated nodes in this JVM, each with its own client, connections and
+ * lock factory, whose workers fight over a Zipf-distributed keyspace of a local backend.
+ * Nodes can be killed while holding locks and notifications can be dropped, to exercise
+ * expiration and the wake-up path. Several JVMs can run against the same backend and
+ * keyspace to add more nodes, each reporting its own measurements.
+ *
+ * Reports the throughput, acquisition latency percentiles, timeouts and fairness across
+ * nodes every interval and for the whole run, and optionally logs the interval latency
+ * histograms to an HdrHistogram log file. Exits with status 1 if two nodes held the same
+ * lock or an acquisition got stuck past its timeout.
+ *
+ * Usage: {@code gradle :soak:run --args="--backend=redis --nodes=20 --skew=1.1 --killEveryMS=10000"}
+ * See {@link SoakConfig} for all settings.
+ */
+public class SoakHarness {
+    private final SoakConfig config;
+    private final SoakBackend backend;
+    private final SoakStats stats;
+    private final List<SoakNode> nodes = new ArrayList<>();
+
+    // Runs the reports and failure injection
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // Latencies of the whole run, and counters at the previous report
+    private final Histogram total = new Histogram(3);
+    private Histogram interval;
+    private long reportedAcquired;
+    private long reportedTimeouts;
+    private long lastReportNanos;
+    private HistogramLogWriter logWriter;
+
+    private final AtomicLong kills = new AtomicLong();
+    private final AtomicLong drops = new AtomicLong();
+
+    public SoakHarness(final SoakConfig config, final SoakBackend backend) {
+        this.config = config;
+        this.backend = backend;
+        this.stats = new SoakStats(config.leaseMS());
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final SoakConfig config = SoakConfig.parse(args);
+        final boolean passed;
+        try (SoakBackend backend = SoakBackend.of(config)) {
+            passed = new SoakHarness(config, backend).run();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Runs the soak test to completion.
+     *
+     * @return {@code true} if no node held a lock held by another node and no acquisition got stuck
+     */
+    public boolean run() throws Exception {
+        final ZipfKeys keys = new ZipfKeys("soak:", config.keys(), config.skew());
+        System.out.printf(Locale.ROOT, "Soaking %s with %d nodes x %d workers on %d keys (skew %.2f, hottest key %.1f%% of picks) for %ds after a %ds warm-up%n",
+        config.backend(), config.nodes(), config.workers(), config.keys(), config.skew(), keys.probability(0) * 100, config.durationS(), config.warmupS());
+
+        if (config.histogramLog() != null) {
+            openHistogramLog();
+        }
+
+        for (int i = 0; i < config.nodes(); i++) {
+            final SoakNode node = new SoakNode(i, config, backend, keys, stats);
+            node.start();
+            nodes.add(node);
+        }
+        scheduleFailures();
+
+        TimeUnit.SECONDS.sleep(config.warmupS());
+        stats.startRecording();
+        lastReportNanos = System.nanoTime();
+        final long startNanos = lastReportNanos;
+        scheduler.scheduleAtFixedRate(this::report, config.reportEveryS(), config.reportEveryS(), TimeUnit.SECONDS);
+
+        TimeUnit.SECONDS.sleep(config.durationS());
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(config.restartDelayMS() + config.timeoutMS(), TimeUnit.MILLISECONDS);
+        report();
+        final double elapsedS = (System.nanoTime() - startNanos) / 1e9;
+
+        for (SoakNode node : nodes) {
+            node.stop();
+        }
+        if (logWriter != null) {
+            logWriter.close();
+        }
+
+        printSummary(elapsedS);
+        return stats.violations.sum() == 0 && stats.stuck.sum() == 0;
+    }
+
+    private void openHistogramLog() throws FileNotFoundException {
+        logWriter = new HistogramLogWriter(new PrintStream(config.histogramLog()));
+        logWriter.outputLogFormatVersion();
+        logWriter.outputComment("Acquisition latencies of lockedb " + config);
+        logWriter.outputStartTime(System.currentTimeMillis());
+        logWriter.outputLegend();
+    }
+
+    /**
+     * Kills a node and drops notifications at the configured intervals.
+     */
+    private void scheduleFailures() {
+        if (config.killEveryMS() > 0) {
+            scheduler.scheduleAtFixedRate(this::killNode, config.killEveryMS(), config.killEveryMS(), TimeUnit.MILLISECONDS);
+        }
+        if (config.dropEveryMS() > 0) {
+            final AtomicBoolean supported = new AtomicBoolean(true);
+            scheduler.scheduleAtFixedRate(() -> {
+                if (!supported.get()) return;
+                if (backend.dropNotifications()) {
+                    drops.incrementAndGet();
+                }
+                else {
+                    supported.set(false);
+                    System.out.println("The " + config.backend() + " backend cannot drop notifications, skipping");
+                }
+            }, config.dropEveryMS(), config.dropEveryMS(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void killNode() {
+        final List<SoakNode> up = nodes.stream().filter(SoakNode::isUp).toList();
+        if (up.isEmpty()) return;
+
+        final SoakNode node = up.get(ThreadLocalRandom.current().nextInt(up.size()));
+        try {
+            node.kill();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        kills.incrementAndGet();
+        scheduler.schedule(() -> {
+            try {
+                node.restart();
+            } catch (RuntimeException e) {
+                // The backend is unavailable, the next kill leaves this node down
+                e.printStackTrace();
+            }
+        }, config.restartDelayMS(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Prints the measurements of the interval since the previous report.
+     */
+    private synchronized void report() {
+        interval = stats.acquireLatency.getIntervalHistogram(interval);
+        total.add(interval);
+        if (logWriter != null) {
+            logWriter.outputIntervalHistogram(interval);
+        }
+
+        final long now = System.nanoTime();
+        final double elapsedS = (now - lastReportNanos) / 1e9;
+        lastReportNanos = now;
+        final long acquired = stats.acquired.sum();
+        final long timeouts = stats.timeouts.sum();
+        final long up = nodes.stream().filter(SoakNode::isUp).count();
+
+        System.out.printf(Locale.ROOT, "%8.0f acquired/s  %s  %d timeouts  %d stuck  %d errors  %d violations  %d/%d nodes up%n",
+        (acquired - reportedAcquired) / elapsedS, percentiles(interval), timeouts - reportedTimeouts,
+        stats.stuck.sum(), stats.errors.sum(), stats.violations.sum(), up, nodes.size());
+        reportedAcquired = acquired;
+        reportedTimeouts = timeouts;
+    }
+
+    private void printSummary(final double elapsedS) {
+        final long acquired = stats.acquired.sum();
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Throughput:  %.0f acquired/s (%d in %.0fs)%n", acquired / elapsedS, acquired, elapsedS);
+        System.out.println("Latency:     " + percentiles(total));
+        System.out.printf(Locale.ROOT, "Outcomes:    %d timeouts (%.3f%%), %d stuck, %d errors%n",
+        stats.timeouts.sum(), 100.0 * stats.timeouts.sum() / Math.max(1, acquired + stats.timeouts.sum()), stats.stuck.sum(), stats.errors.sum());
+        System.out.printf(Locale.ROOT, "Failures:    %d nodes killed, %d notification drops%n", kills.get(), drops.get());
+
+        // Jain's fairness index of the acquisitions per node, 1 when every node acquired as often
+        double sum = 0;
+        double sumOfSquares = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (SoakNode node : nodes) {
+            final long count = node.acquired.sum();
+            sum += count;
+            sumOfSquares += (double) count * count;
+            min = Math.min(min, count);
+            max = Math.max(max, count);
+        }
+        final double fairness = sumOfSquares == 0 ? 1 : sum * sum / (nodes.size() * sumOfSquares);
+        System.out.printf(Locale.ROOT, "Fairness:    %.4f Jain's index, %d to %d acquisitions per node%n", fairness, min, max);
+        System.out.println("Exclusion:   " + (stats.violations.sum() == 0 ? "no lock was held by two nodes" : stats.violations.sum() + " locks were held by two nodes at once"));
+    }
+
+    private static String percentiles(final Histogram histogram) {
+        return String.format(Locale.ROOT, "p50 %.2fms  p99 %.2fms  p99.9 %.2fms  max %.2fms",
+        histogram.getValueAtPercentile(50) / 1e6,
+        histogram.getValueAtPercentile(99) / 1e6,
+        histogram.getValueAtPercentile(99.9) / 1e6,
+        histogram.getMaxValue() / 1e6);
+    }
+}
@@ -0,0 +1,185 @@
+package com.h14turkiye.lockedb.soak;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.h14turkiye.lockedb.ALock;
+import com.h14turkiye.lockedb.LockFactory;
+
+/**
+ * A simulated client node, with its own connection and lock factory, whose workers
+ * repeatedly acquire a key, hold it and release it.
+ */
+public class SoakNode {
+    // How long past its timeout an acquisition may take before it is considered stuck
+    private static final long STUCK_AFTER_MS = 1000;
+
+    private final int id;
+    private final SoakConfig config;
+    private final SoakBackend backend;
+    private final ZipfKeys keys;
+    private final SoakStats stats;
+
+    /** Locks acquired by this node once the warm-up is over. */
+    final LongAdder acquired = new LongAdder();
+
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    // The node's connection, null while the node is down
+    private volatile SoakBackend.NodeConnection connection;
+
+    public SoakNode(final int id, final SoakConfig config, final SoakBackend backend, final ZipfKeys keys, final SoakStats stats) {
+        this.id = id;
+        this.config = config;
+        this.backend = backend;
+        this.keys = keys;
+        this.stats = stats;
+    }
+
+    /**
+     * Connects the node and starts its workers, each on its own virtual thread.
+     */
+    public void start() {
+        connection = backend.connect();
+        for (int i = 0; i < config.workers(); i++) {
+            workers.add(Thread.ofVirtual().name("soak-node-" + id + "-worker-" + i).start(this::work));
+        }
+    }
+
+    /**
+     * @return {@code true} unless the node has been killed and not restarted yet
+     */
+    public boolean isUp() {
+        return connection != null;
+    }
+
+    /**
+     * Crashes the node: its connection is closed without releasing the locks it holds,
+     * which other nodes can only acquire once they expire.
+     */
+    public void kill() {
+        final SoakBackend.NodeConnection killed = connection;
+        connection = null;
+        if (killed != null) {
+            killed.close();
+        }
+    }
+
+    /**
+     * Brings a killed node back with a new connection and factory.
+     */
+    public void restart() {
+        connection = backend.connect();
+    }
+
+    /**
+     * Stops the workers, releases the locks still held and closes the node's connection.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        final SoakBackend.NodeConnection stopped = connection;
+        connection = null;
+        if (stopped != null) {
+            try {
+                stopped.factory().releaseAll().get(config.timeoutMS(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                e.printStackTrace();
+            } finally {
+                stopped.close();
+            }
+        }
+    }
+
+    private void work() {
+        try {
+            while (running) {
+                final SoakBackend.NodeConnection current = connection;
+                if (current == null) {
+                    // The node is down until it is restarted
+                    Thread.sleep(10);
+                    continue;
+                }
+                try {
+                    runOnce(current);
+                } catch (RuntimeException e) {
+                    // A killed node's factory rejects calls, which is expected
+                    if (connection == current) {
+                        stats.onError();
+                        e.printStackTrace();
+                    }
+                }
+                if (config.thinkMS() > 0) {
+                    Thread.sleep(config.thinkMS());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Acquires a key, holds it and releases it.
+     */
+    private void runOnce(final SoakBackend.NodeConnection current) throws InterruptedException {
+        final LockFactory factory = current.factory();
+        final String key = keys.next();
+        final ALock lock = factory.builder()
+        .expiresAfterMS(config.leaseMS())
+        .timeoutMS(config.timeoutMS())
+        .fair(config.fair())
+        .build(key);
+
+        final long startNanos = System.nanoTime();
+        final Boolean acquired;
+        try {
+            acquired = lock.acquire().get(config.timeoutMS() + STUCK_AFTER_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (connection == current) {
+                stats.onStuck();
+            }
+            return;
+        } catch (ExecutionException e) {
+            if (connection == current) {
+                stats.onError();
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        if (!Boolean.TRUE.equals(acquired)) {
+            stats.onTimeout();
+            return;
+        }
+        final long acquiredNanos = System.nanoTime();
+        stats.onAcquired(startNanos, acquiredNanos);
+        if (stats.isRecording()) {
+            this.acquired.increment();
+        }
+
+        final SoakStats.Holder holder = stats.hold(key, id, acquiredNanos);
+        if (config.holdMS() > 0) {
+            Thread.sleep(config.holdMS());
+        }
+        if (connection != current) {
+            // Killed while holding the lock, which now lingers until it expires
+            return;
+        }
+        stats.unhold(key, holder);
+        try {
+            lock.release().get(config.timeoutMS(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            if (connection == current) {
+                stats.onError();
+                e.printStackTrace();
+            }
+        }
+    }
+}
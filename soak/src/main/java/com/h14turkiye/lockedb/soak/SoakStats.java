@@ -0,0 +1,110 @@
+package com.h14turkiye.lockedb.soak;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Recorder;
+
+/**
+ * Measurements of a soak run, shared by all nodes of a JVM.
+ *
+ * Acquisition latencies are recorded in nanoseconds into an HDR histogram recorder, read
+ * out per reporting interval. Outcomes are counted once the warm-up is over, except
+ * mutual exclusion violations which are always counted.
+ */
+public class SoakStats {
+    /** Latency from calling acquire() to acquiring the lock. */
+    final Recorder acquireLatency = new Recorder(3);
+
+    final LongAdder acquired = new LongAdder();
+    final LongAdder timeouts = new LongAdder();
+    final LongAdder stuck = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder violations = new LongAdder();
+
+    // Whether the warm-up is over
+    private volatile boolean recording;
+
+    // The holder of every key held within this JVM, to detect two nodes holding the same lock
+    private final ConcurrentMap<String, Holder> holders = new ConcurrentHashMap<>();
+    private final long leaseNanos;
+
+    /**
+     * A lock held by a node, which the backend must not hand to another node before its lease runs out.
+     *
+     * @param node the id of the holding node
+     * @param protectedUntilNanos until when no other node may acquire the lock, slightly before the
+     *        lease runs out to allow for the delay between the backend granting the lock and the node noticing
+     */
+    record Holder(int node, long protectedUntilNanos) {}
+
+    /**
+     * Constructs a SoakStats.
+     *
+     * @param leaseMS the expiration of the locks
+     */
+    public SoakStats(final long leaseMS) {
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMS);
+    }
+
+    /**
+     * Ends the warm-up, discarding what was recorded during it.
+     */
+    public void startRecording() {
+        acquireLatency.reset();
+        recording = true;
+    }
+
+    /**
+     * @return {@code true} once the warm-up is over
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    void onAcquired(final long startNanos, final long acquiredNanos) {
+        if (!recording) return;
+        acquireLatency.recordValue(acquiredNanos - startNanos);
+        acquired.increment();
+    }
+
+    void onTimeout() {
+        if (recording) timeouts.increment();
+    }
+
+    /**
+     * Counts an acquisition that neither succeeded nor timed out well after its timeout,
+     * which means a waiter was never woken up or its timeout never fired.
+     */
+    void onStuck() {
+        if (recording) stuck.increment();
+    }
+
+    void onError() {
+        if (recording) errors.increment();
+    }
+
+    /**
+     * Marks a key as held by a node, counting a violation if another node still holds it.
+     *
+     * @return the holder, to be passed to {@link #unhold(String, Holder)} before releasing the lock
+     */
+    Holder hold(final String key, final int node, final long acquiredNanos) {
+        final Holder holder = new Holder(node, acquiredNanos + leaseNanos * 9 / 10);
+        final Holder previous = holders.put(key, holder);
+        if (previous != null && previous.protectedUntilNanos() > acquiredNanos) {
+            violations.increment();
+        }
+        return holder;
+    }
+
+    /**
+     * Marks a key as no longer held. Must be called before the lock is released, so the next
+     * holder cannot be granted the lock while it is still marked as held.
+     */
+    void unhold(final String key, final Holder holder) {
+        holders.remove(key, holder);
+    }
+}
@@ -0,0 +1,55 @@
+package com.h14turkiye.lockedb.soak;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks lock keys following a Zipf distribution, where the key of rank {@code k} is
+ * picked with a probability proportional to {@code 1 / k^skew}. A skew of {@code 0}
+ * picks keys uniformly, and a skew around {@code 1} matches the popularity of typical
+ * real-world resources, with a few hot keys and a long tail.
+ */
+public class ZipfKeys {
+    private final String[] keys;
+
+    // Cumulative probability of picking a key of at most each rank
+    private final double[] cumulative;
+
+    /**
+     * Constructs a ZipfKeys.
+     *
+     * @param prefix the prefix of every key, followed by the rank of the key
+     * @param count the number of distinct keys
+     * @param skew the exponent of the distribution, {@code 0} for uniformly distributed keys
+     */
+    public ZipfKeys(final String prefix, final int count, final double skew) {
+        this.keys = new String[count];
+        this.cumulative = new double[count];
+        double total = 0;
+        for (int rank = 0; rank < count; rank++) {
+            keys[rank] = prefix + rank;
+            total += 1 / Math.pow(rank + 1, skew);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < count; rank++) {
+            cumulative[rank] /= total;
+        }
+    }
+
+    /**
+     * @return a key picked at random following the distribution
+     */
+    public String next() {
+        final int found = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+        final int rank = found >= 0 ? found : -found - 1;
+        return keys[Math.min(rank, keys.length - 1)];
+    }
+
+    /**
+     * @param rank the rank of a key, {@code 0} being the most popular
+     * @return the probability of picking that key
+     */
+    public double probability(final int rank) {
+        return rank == 0 ? cumulative[0] : cumulative[rank] - cumulative[rank - 1];
+    }
+}